@@ -10,21 +10,26 @@ import java.rmi.RemoteException;
 public interface AcceptorInterface extends Remote {
 
   /**
-   * Prepares the acceptor to receive a proposal with a given proposal ID.
+   * Prepares the acceptor to receive a proposal with a given ballot for a slot of the log.
    *
-   * @param proposalId The unique ID of the proposal.
-   * @return An integer response indicating the status or decision related to the proposal.
+   * @param slot The slot of the log the proposal is for.
+   * @param ballot The ballot of the proposal.
+   * @return The state of the acceptor for the slot: the ballot it promised, which is the given
+   * ballot if the proposal is promised and the higher competing ballot if it is rejected, and the
+   * value it last accepted for the slot. Null if the acceptor is down.
    * @throws RemoteException If a remote communication error occurs.
    */
-  Pair<Boolean, Operation> prepare(String proposalId, Object oper) throws RemoteException;
+  Promise prepare(long slot, Ballot ballot) throws RemoteException;
 
   /**
-   * Accepts or rejects a proposal with the given proposal ID and value.
+   * Accepts or rejects a proposal with the given ballot and value for a slot of the log.
    *
-   * @param proposalId The unique ID of the proposal.
+   * @param slot The slot of the log the proposal is for.
+   * @param ballot The ballot of the proposal.
    * @param proposalValue The value of the proposal.
-   * @return A boolean indicating whether the proposal was accepted (true) or rejected (false).
+   * @return The ballot the acceptor promised: the given ballot if the proposal was accepted, the
+   * higher competing ballot if it was rejected, null if the acceptor is down.
    * @throws RemoteException If a remote communication error occurs.
    */
-  void accept(String proposalId, Object proposalValue) throws RemoteException;
+  Ballot accept(long slot, Ballot ballot, Operation proposalValue) throws RemoteException;
 }
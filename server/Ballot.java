@@ -0,0 +1,67 @@
+package server;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A Paxos ballot number. Ballots are ordered by their round first and by the id of the proposing
+ * server next, so ballots of different servers are never equal and every pair of ballots is
+ * ordered. It is written with OperationCodec when sent over RMI.
+ */
+public class Ballot implements Externalizable, Comparable<Ballot> {
+  private static final long serialVersionUID = 1L;
+
+  long round;
+  int serverId;
+
+  /**
+   * Create a ballot.
+   * @param round round of the ballot, the time it was generated at in milliseconds
+   * @param serverId id of the server proposing with the ballot
+   */
+  Ballot(long round, int serverId) {
+    this.round = round;
+    this.serverId = serverId;
+  }
+
+  /**
+   * Create an empty ballot, used when reading a ballot sent over RMI.
+   */
+  public Ballot() {}
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    OperationCodec.writeBallot(out, this);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    OperationCodec.readBallot(in, this);
+  }
+
+  @Override
+  public int compareTo(Ballot other) {
+    int c = Long.compare(this.round, other.round);
+    return c != 0 ? c : Integer.compare(this.serverId, other.serverId);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof Ballot))
+      return false;
+    Ballot b = (Ballot) o;
+    return this.round == b.round && this.serverId == b.serverId;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(this.round) * 31 + this.serverId;
+  }
+
+  @Override
+  public String toString() {
+    return this.serverId + ":" + this.round;
+  }
+}
@@ -0,0 +1,48 @@
+package server;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.List;
+
+/**
+ * A batch of committed changes returned to a watcher along with the slot to resume from. The next
+ * slot also moves past the changes that did not match the watch, so they are not scanned again.
+ * The epoch identifies the instance of the replica's change feed: it changes when the replica
+ * restarts and its slots start over. It is written with OperationCodec when sent over RMI.
+ */
+public class ChangeBatch implements Externalizable {
+  private static final long serialVersionUID = 1L;
+
+  public List<ChangeEvent> events;
+  public long nextSlot;
+  public long epoch;
+
+  /**
+   * Create a batch of changes.
+   * @param events changes matching the watch
+   * @param nextSlot slot the watcher should ask for next
+   * @param epoch epoch of the change feed the batch was read from
+   */
+  public ChangeBatch(List<ChangeEvent> events, long nextSlot, long epoch) {
+    this.events = events;
+    this.nextSlot = nextSlot;
+    this.epoch = epoch;
+  }
+
+  /**
+   * Create an empty batch, used when reading a batch sent over RMI.
+   */
+  public ChangeBatch() {}
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    OperationCodec.writeChanges(out, this);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    OperationCodec.readChanges(in, this);
+  }
+}
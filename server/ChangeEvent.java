@@ -0,0 +1,34 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * A single committed change on the key-value store as seen by the learner of a replica.
+ */
+public class ChangeEvent implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public final long slot;
+  public final byte type;
+  public final String key;
+  public final String value;
+
+  /**
+   * Create a change event.
+   * @param slot slot at which the change was applied
+   * @param type opcode of the applied operation
+   * @param key key that was changed
+   * @param value value of the key after the change, null if the key was deleted
+   */
+  public ChangeEvent(long slot, byte type, String key, String value) {
+    this.slot = slot;
+    this.type = type;
+    this.key = key;
+    this.value = value;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + this.slot + "] " + this.key + ":" + this.value;
+  }
+}
@@ -0,0 +1,85 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the most recent changes applied by a learner in a bounded ring so that watchers can read
+ * them in batches. It uses its own monitor so that waiting watchers never hold the server lock.
+ */
+class ChangeFeed {
+  private final ChangeEvent[] ring;
+  private final long epoch = ThreadLocalRandom.current().nextLong();
+  private volatile long nextSlot = 1;
+
+  /**
+   * Create a change feed.
+   * @param capacity number of changes to be retained for watchers
+   */
+  ChangeFeed(int capacity) {
+    this.ring = new ChangeEvent[capacity];
+  }
+
+  /**
+   * Record an applied change and wake up the waiting watchers.
+   * @param type opcode of the applied operation
+   * @param key key that was changed
+   * @param value value of the key after the change
+   */
+  synchronized void append(byte type, String key, String value) {
+    this.ring[(int) (this.nextSlot % this.ring.length)] = new ChangeEvent(this.nextSlot, type, key, value);
+    this.nextSlot += 1;
+    this.notifyAll();
+  }
+
+  /**
+   * Get the slot the next applied change will get. This does not take the lock, so it can be read
+   * on every GET.
+   * @return slot of the next change
+   */
+  long nextSlot() {
+    return this.nextSlot;
+  }
+
+  /**
+   * Read the changes matching a key or a prefix starting at the given slot.
+   * @param key key or prefix to be matched
+   * @param isPrefix true to match every key starting with the given key
+   * @param fromSlot first slot to be read, 0 or less to start from the next committed change
+   * @param maxEvents maximum number of changes to be returned
+   * @param timeoutMillis maximum time to wait for a matching change
+   * @param withValues false to leave out the values of the changes and only return the keys
+   * @return batch of the matching changes
+   * @throws InterruptedException if wait is interrupted
+   */
+  synchronized ChangeBatch read(String key, boolean isPrefix, long fromSlot, int maxEvents, long timeoutMillis,
+      boolean withValues) throws InterruptedException {
+    long slot = fromSlot <= 0 ? this.nextSlot : fromSlot;
+    List<ChangeEvent> events = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while(true) {
+      // the ring may have wrapped past the slot while waiting
+      long oldest = Math.max(1, this.nextSlot - this.ring.length);
+      if(slot < oldest) {
+        throw new IllegalStateException("Slot " + slot + " is no longer retained, oldest slot is " + oldest);
+      }
+      if(slot > this.nextSlot) {
+        // slots restart when the replica restarts, so the watcher resumes from another instance
+        throw new IllegalStateException("Slot " + slot + " is ahead of the feed, next slot is " + this.nextSlot);
+      }
+      while(slot < this.nextSlot && events.size() < maxEvents) {
+        ChangeEvent e = this.ring[(int) (slot % this.ring.length)];
+        if(isPrefix ? e.key.startsWith(key) : e.key.equals(key)) {
+          events.add(withValues ? e : new ChangeEvent(e.slot, e.type, e.key, null));
+        }
+        slot += 1;
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      if(!events.isEmpty() || remaining <= 0) {
+        return new ChangeBatch(events, slot, this.epoch);
+      }
+      this.wait(remaining);
+    }
+  }
+}
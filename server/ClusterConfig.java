@@ -0,0 +1,83 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Membership of a cluster of replicas read from a JSON config file of the form
+ * {"replicas": [{"id": 0, "host": "localhost", "port": 5001}, ...]}.
+ */
+class ClusterConfig {
+  private final String[] hosts;
+  private final int[] ports;
+
+  private ClusterConfig(String[] hosts, int[] ports) {
+    this.hosts = hosts;
+    this.ports = ports;
+  }
+
+  /**
+   * Read the cluster config from the given file.
+   * @param path path of the config file
+   * @return the cluster config
+   * @throws IOException if the file cannot be read
+   */
+  static ClusterConfig load(String path) throws IOException {
+    try(FileReader reader = new FileReader(path)) {
+      JsonArray replicas = ((JsonObject) JsonParser.parseReader(reader)).getAsJsonArray("replicas");
+      String[] hosts = new String[replicas.size()];
+      int[] ports = new int[replicas.size()];
+      for(JsonElement e : replicas) {
+        JsonObject r = e.getAsJsonObject();
+        int id = r.get("id").getAsInt();
+        if(id < 0 || id >= replicas.size() || hosts[id] != null) {
+          throw new IOException("Replica ids must be unique and numbered from 0, found: " + id);
+        }
+        hosts[id] = r.get("host").getAsString();
+        ports[id] = r.get("port").getAsInt();
+      }
+      return new ClusterConfig(hosts, ports);
+    } catch(RuntimeException re) {
+      throw new IOException("Malformed cluster config: " + path, re);
+    }
+  }
+
+  /**
+   * Get the number of replicas in the cluster.
+   * @return number of replicas in the cluster
+   */
+  int size() {
+    return this.hosts.length;
+  }
+
+  /**
+   * Get the host of a replica.
+   * @param id id of the replica
+   * @return host the replica runs on
+   */
+  String host(int id) {
+    return this.hosts[id];
+  }
+
+  /**
+   * Get the registry port of a replica.
+   * @param id id of the replica
+   * @return port of the RMI registry of the replica
+   */
+  int port(int id) {
+    return this.ports[id];
+  }
+
+  /**
+   * Get the RMI URL of a replica.
+   * @param id id of the replica
+   * @return RMI URL the replica is bound to
+   */
+  String url(int id) {
+    return "//" + this.hosts[id] + ":" + this.ports[id] + "/KVServer";
+  }
+}
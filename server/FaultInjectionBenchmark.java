@@ -0,0 +1,274 @@
+package server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs every replica of a cluster as its own process and measures the write throughput and latency
+ * before, during and after each fault of a scripted schedule. The schedule is read from a JSON file
+ * of the form {"clients": 4, "phaseSeconds": 10, "faults": [{"type": "kill", "replica": 4}, ...]}.
+ * The supported faults are:
+ * - kill: the replica process is killed and stays down for the rest of the run. A replica keeps its
+ *   store, promises and sessions in memory only, and restarting it with an empty state would let it
+ *   break promises it made before, so the phase after the fault is reported as "down".
+ * - pause: the replica process is stopped with SIGSTOP and resumed with SIGCONT afterwards.
+ * - slow: every acceptor and learner call on the replica takes delayMillis more.
+ */
+public class FaultInjectionBenchmark {
+
+  private static final long STARTUP_TIMEOUT = 30000;
+
+  private final ClusterConfig config;
+  private final Process[] replicas;
+  private final String configPath;
+  private final boolean[] killed;
+
+  /**
+   * Create a benchmark for the given cluster.
+   * @param configPath path of the cluster config file
+   * @throws IOException if the config file cannot be read
+   */
+  public FaultInjectionBenchmark(String configPath) throws IOException {
+    this.configPath = configPath;
+    this.config = ClusterConfig.load(configPath);
+    this.replicas = new Process[this.config.size()];
+    this.killed = new boolean[this.config.size()];
+  }
+
+  /**
+   * Start a replica in its own process and wait for it to be bound in its registry.
+   * @param id id of the replica
+   * @throws IOException if the process cannot be started
+   * @throws InterruptedException if waiting is interrupted
+   */
+  private void startReplica(int id) throws IOException, InterruptedException {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        "server.ReplicaLauncher", this.configPath, Integer.toString(id));
+    pb.redirectErrorStream(true);
+    pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File("replica-" + id + ".log")));
+    this.replicas[id] = pb.start();
+
+    long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+    while(true) {
+      try {
+        Naming.lookup(this.config.url(id));
+        return;
+      } catch(Exception e) {
+        if(System.currentTimeMillis() > deadline || !this.replicas[id].isAlive())
+          throw new IOException("Replica " + id + " did not start, see replica-" + id + ".log");
+        Thread.sleep(200);
+      }
+    }
+  }
+
+  /**
+   * Send a signal to a replica process.
+   * @param id id of the replica
+   * @param signal name of the signal
+   */
+  private void signal(int id, String signal) throws IOException, InterruptedException {
+    new ProcessBuilder("kill", "-" + signal, Long.toString(this.replicas[id].pid())).start().waitFor();
+  }
+
+  /**
+   * Inject a fault into a replica.
+   * @param fault fault from the schedule
+   */
+  private void inject(JsonObject fault) throws Exception {
+    int id = fault.get("replica").getAsInt();
+    switch(fault.get("type").getAsString()) {
+      case "kill":
+        this.replicas[id].destroyForcibly().waitFor();
+        this.killed[id] = true;
+        break;
+      case "pause":
+        this.signal(id, "STOP");
+        break;
+      case "slow":
+        ((FaultInterface) Naming.lookup(this.config.url(id))).setInjectedDelay(fault.get("delayMillis").getAsLong());
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown fault type: " + fault.get("type").getAsString());
+    }
+  }
+
+  /**
+   * Remove a fault from a replica. A killed replica is not started again, as it would come back
+   * without the state it had.
+   * @param fault fault from the schedule
+   * @return true if the fault was removed, false if the replica stays down
+   */
+  private boolean heal(JsonObject fault) throws Exception {
+    int id = fault.get("replica").getAsInt();
+    switch(fault.get("type").getAsString()) {
+      case "kill":
+        return false;
+      case "pause":
+        this.signal(id, "CONT");
+        return true;
+      case "slow":
+        ((FaultInterface) Naming.lookup(this.config.url(id))).setInjectedDelay(0);
+        return true;
+      default:
+        throw new IllegalArgumentException("Unknown fault type: " + fault.get("type").getAsString());
+    }
+  }
+
+  /**
+   * Send PUT requests to random replicas from the given number of clients for the given time.
+   * @param clients number of concurrent clients
+   * @param seconds duration of the load
+   * @return pair of the number of failed requests and of the requests with an unknown outcome, and
+   * the latencies of the successful ones in nanoseconds
+   */
+  private Pair<int[], List<Long>> runLoad(int clients, int seconds) throws InterruptedException {
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    int[] errors = new int[clients];
+    int[] unknown = new int[clients];
+    Thread[] threads = new Thread[clients];
+    for(int c = 0; c < clients; c++) {
+      int client = c;
+      threads[c] = new Thread(() -> {
+        String sessionId = UUID.randomUUID().toString();
+        Map<Integer, KVStoreInterface> stubs = new HashMap<>();
+        for(long seq = 1; System.nanoTime() < deadline; seq++) {
+          int id = ThreadLocalRandom.current().nextInt(this.config.size());
+          long start = System.nanoTime();
+          try {
+            KVStoreInterface kvs = stubs.get(id);
+            if(kvs == null) {
+              kvs = (KVStoreInterface) Naming.lookup(this.config.url(id));
+              stubs.put(id, kvs);
+            }
+            String resp = kvs.put("bench-" + client + "-" + seq, Long.toString(seq), sessionId, seq);
+            if(resp.startsWith("Successfully"))
+              latencies.add(System.nanoTime() - start);
+            else if(resp.equals(Globals.OUTCOME_UNKNOWN))
+              unknown[client] += 1;
+            else
+              errors[client] += 1;
+          } catch(Exception e) {
+            stubs.remove(id);
+            errors[client] += 1;
+          }
+        }
+      });
+      threads[c].start();
+    }
+    int[] total = new int[2];
+    for(int c = 0; c < clients; c++) {
+      threads[c].join();
+      total[0] += errors[c];
+      total[1] += unknown[c];
+    }
+    return new Pair<>(total, latencies);
+  }
+
+  /**
+   * Print the throughput and latency of a phase.
+   * @param fault description of the fault
+   * @param phase name of the phase
+   * @param seconds duration of the phase
+   * @param result number of failed requests and of the requests with an unknown outcome, and
+   * latencies of the successful ones
+   */
+  private static void report(String fault, String phase, int seconds, Pair<int[], List<Long>> result) {
+    List<Long> l = new ArrayList<>(result.t);
+    Collections.sort(l);
+    System.out.println(String.format("%-24s %-7s ok=%-6d errors=%-5d unknown=%-5d throughput=%8.1f ops/s p50=%8.1f ms p99=%8.1f ms max=%8.1f ms",
+        fault, phase, l.size(), result.k[0], result.k[1], l.size() / (double) seconds,
+        percentile(l, 0.50), percentile(l, 0.99), percentile(l, 1.0)));
+  }
+
+  private static double percentile(List<Long> sorted, double p) {
+    if(sorted.isEmpty())
+      return 0;
+    int i = (int) Math.ceil(p * sorted.size()) - 1;
+    return sorted.get(Math.max(0, i)) / 1_000_000.0;
+  }
+
+  /**
+   * Start the cluster and run the fault schedule against it.
+   * @param schedulePath path of the fault schedule file
+   */
+  public void run(String schedulePath) throws Exception {
+    JsonObject schedule;
+    try(FileReader reader = new FileReader(schedulePath)) {
+      schedule = (JsonObject) JsonParser.parseReader(reader);
+    }
+    int clients = schedule.get("clients").getAsInt();
+    int seconds = schedule.get("phaseSeconds").getAsInt();
+
+    for(int id = 0; id < this.config.size(); id++) {
+      this.startReplica(id);
+    }
+    for(JsonElement e : schedule.getAsJsonArray("faults")) {
+      JsonObject fault = e.getAsJsonObject();
+      int id = fault.get("replica").getAsInt();
+      String name = fault.get("type").getAsString() + " replica " + id;
+      if(this.killed[id]) {
+        System.out.println(String.format("%-24s skipped, the replica was killed earlier and stays down", name));
+        continue;
+      }
+      report(name, "before", seconds, this.runLoad(clients, seconds));
+      this.inject(fault);
+      report(name, "during", seconds, this.runLoad(clients, seconds));
+      report(name, this.heal(fault) ? "after" : "down", seconds, this.runLoad(clients, seconds));
+    }
+  }
+
+  /**
+   * Kill all the replica processes.
+   */
+  public void stop() {
+    for(Process p : this.replicas) {
+      if(p != null)
+        p.destroyForcibly();
+    }
+  }
+
+  /**
+   * The main method to run the benchmark.
+   *
+   * @param args path of the cluster config file and of the fault schedule file.
+   */
+  public static void main(String[] args) {
+    if(args.length != 2) {
+      System.err.println("Usage: java -cp \".:lib/*\" server.FaultInjectionBenchmark <cluster config> <fault schedule>");
+      System.exit(1);
+    }
+    if(System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null)
+      System.setProperty("sun.rmi.transport.tcp.responseTimeout", "2000");
+    if(System.getProperty("sun.rmi.transport.tcp.handshakeTimeout") == null)
+      System.setProperty("sun.rmi.transport.tcp.handshakeTimeout", "2000");
+    FaultInjectionBenchmark benchmark = null;
+    try {
+      benchmark = new FaultInjectionBenchmark(args[0]);
+      Runtime.getRuntime().addShutdownHook(new Thread(benchmark::stop));
+      benchmark.run(args[1]);
+    } catch(Exception e) {
+      System.err.println("Benchmark exception: " + e.toString());
+      e.printStackTrace();
+    } finally {
+      if(benchmark != null)
+        benchmark.stop();
+    }
+    System.exit(0);
+  }
+}
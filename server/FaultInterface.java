@@ -0,0 +1,19 @@
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The FaultInterface lets a fault-injection harness degrade a running replica. Faults that need
+ * the process itself, like killing or pausing it, are injected by the harness from outside.
+ */
+public interface FaultInterface extends Remote {
+
+  /**
+   * Make every acceptor and learner call on this replica take the given extra time.
+   *
+   * @param millis extra time in milliseconds, 0 to remove the delay
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  void setInjectedDelay(long millis) throws RemoteException;
+}
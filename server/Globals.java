@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * A global interface that contains all the global variables to used in the server class.
+ */
+interface Globals {
+  public static int PROPOSER_TIMEOUT=100;
+  public static int ACCEPTOR_DOWN_TIME=60;
+  public static int FEED_CAPACITY=1024;
+  public static int FEED_MAX_BATCH=128;
+  public static int FEED_MAX_WAIT=10000;
+  public static int SESSION_CAPACITY=4096;
+  public static int MIN_PROPOSER_TIMEOUT=5;
+  public static int MAX_PROPOSER_TIMEOUT=2000;
+  public static int MAX_PROPOSE_RETRIES=5;
+  public static int BACKOFF_BASE=20;
+  public static int BACKOFF_MAX=1000;
+  public static int LEARN_TIMEOUT=5000;
+  public static int READ_LEASE=2000;
+  public static int GAP_TIMEOUT=500;
+  public static int LOG_RETENTION=65536;
+  public static String OUTCOME_UNKNOWN="Outcome unknown, the operation may still be applied";
+}
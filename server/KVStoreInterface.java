@@ -4,7 +4,8 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 /**
- * A class that manages get, put and delete operations onto the key-value store.
+ * A class that manages get, put, delete and atomic read-modify-write operations onto the key-value
+ * store.
  */
 public interface KVStoreInterface extends Remote {
 
@@ -18,6 +19,19 @@ public interface KVStoreInterface extends Remote {
    */
   String put(String key, String value) throws RemoteException, InterruptedException;
 
+  /**
+   * insert or update a value into the key-value store.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be inserted.
+   * @param value value to be inserted
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully updated
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String put(String key, String value, String sessionId, long seq) throws RemoteException, InterruptedException;
+
   /**
    * Delete a value from the key-value store.
    * @param key key to be deleted
@@ -27,6 +41,18 @@ public interface KVStoreInterface extends Remote {
    */
   String delete(String key) throws RemoteException, InterruptedException;
 
+  /**
+   * Delete a value from the key-value store.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be deleted
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully deleted
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String delete(String key, String sessionId, long seq) throws RemoteException, InterruptedException;
+
   /**
    * Get a value to a key from the key-value store.
    * @param key key to be inserted
@@ -35,5 +61,84 @@ public interface KVStoreInterface extends Remote {
    * @throws InterruptedException if sleep is interrupted
    */
   String get(String key) throws RemoteException, InterruptedException;
-}
 
+  /**
+   * Get a value to a key along with a read lease, so that the client can cache it. The client
+   * keeps the value until the lease runs out or the change feed reports a change to the key.
+   * @param key key to be read
+   * @return value of the key, the slot of the change feed it was read at and the lease
+   * @throws RemoteException if any issue in connecting to server
+   */
+  LeasedValue getWithLease(String key) throws RemoteException;
+
+  /**
+   * Atomically replace the value of a key if it currently holds the expected value.
+   * @param key key to be updated
+   * @param expected value the key is expected to hold, null if the key is expected to be absent
+   * @param newValue value to be set
+   * @return response if the value is successfully swapped, or the current value if it does not match
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String compareAndSet(String key, String expected, String newValue) throws RemoteException, InterruptedException;
+
+  /**
+   * Atomically replace the value of a key if it currently holds the expected value.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be updated
+   * @param expected value the key is expected to hold, null if the key is expected to be absent
+   * @param newValue value to be set
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully swapped, or the current value if it does not match
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String compareAndSet(String key, String expected, String newValue, String sessionId, long seq) throws RemoteException, InterruptedException;
+
+  /**
+   * Insert a value into the key-value store only if the key does not already exist.
+   * @param key key to be inserted
+   * @param value value to be inserted
+   * @return response if the value is successfully inserted, or the existing value
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String putIfAbsent(String key, String value) throws RemoteException, InterruptedException;
+
+  /**
+   * Insert a value into the key-value store only if the key does not already exist.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be inserted
+   * @param value value to be inserted
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully inserted, or the existing value
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String putIfAbsent(String key, String value, String sessionId, long seq) throws RemoteException, InterruptedException;
+
+  /**
+   * Atomically add a delta to the numeric value of a key. A missing key is treated as 0.
+   * @param key key to be incremented
+   * @param delta amount to be added
+   * @return response with the incremented value if the value is successfully incremented
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String increment(String key, long delta) throws RemoteException, InterruptedException;
+
+  /**
+   * Atomically add a delta to the numeric value of a key. A missing key is treated as 0.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be incremented
+   * @param delta amount to be added
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response with the incremented value if the value is successfully incremented
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  String increment(String key, long delta, String sessionId, long seq) throws RemoteException, InterruptedException;
+}
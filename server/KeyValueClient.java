@@ -6,8 +6,11 @@ import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.UUID;
 import java.util.function.Predicate;
 import java.util.Random;
 import com.google.gson.*;
@@ -19,13 +22,23 @@ import com.google.gson.*;
  */
 class ClientGlobals {
   protected static String INITIAL_REQ = "Choose the options:\n1. Run Pre-defined data\n2. Run Custom data\nEnter the option: ";
-  protected static String REQ_QUERY = "Choose Request:\n1. GET\n2. PUT\n3. DELETE\n4. Exit\nEnter Request: ";
+  protected static String REQ_QUERY = "Choose Request:\n1. GET\n2. PUT\n3. DELETE\n4. WATCH\n5. Exit\nEnter Request: ";
   protected static String INVALID_KEY = "Error: Invalid key";
   protected static String QUERY_KEY = "Enter key: ";
   protected static String QUERY_VALUE = "Enter value to the key: ";
   protected static String INVALID_VALUE = "Error: Invalid value";
   protected static String FILE_NOT_FOUND = "Error: The file is not found in given path!";
   protected static String REMOTE_EXCEP = "Error: Exception in connecting to the server!";
+  protected static int MAX_RETRIES = 3;
+  protected static long RETRY_BACKOFF = 100;
+  protected static String RESPONSE_TIMEOUT = "10000";
+  protected static String FAILURE_PREFIX = "Exception in";
+  protected static String UNKNOWN_PREFIX = "Outcome unknown";
+  protected static int CACHE_CAPACITY = 1024;
+  protected static String KEY_NOT_FOUND = "Key does not exist to return";
+  protected static String QUERY_PREFIX = "Enter key prefix to watch: ";
+  protected static int WATCH_BATCH = 32;
+  protected static long WATCH_TIMEOUT = 5000;
   protected static String REQUEST_SERVER_ID = "Enter the replica:\n1. 1\n2. 2\n3. 3\n4. 4\n5. 5\n6. Select Random server\nEnter value: ";
 }
 
@@ -39,11 +52,16 @@ public class KeyValueClient extends ClientGlobals {
 
   private JsonObject GetPost;
   private JsonObject Put;
+  private final String sessionId = UUID.randomUUID().toString();
+  private long seq = 0;
+  private final Map<Integer, ReadCache> caches;
 
   /**
    * Constructor that sets the values of the required variables.
+   * @param useCache true to cache the values read from each replica on the client
    */
-  public KeyValueClient() {
+  public KeyValueClient(boolean useCache) {
+    this.caches = useCache ? new HashMap<>() : null;
     try {
       JsonObject obj = (JsonObject) JsonParser.parseReader(new FileReader("./data.json"));
       this.GetPost = (JsonObject) obj.get("GET_CREATE");
@@ -76,7 +94,8 @@ public class KeyValueClient extends ClientGlobals {
 
   /**
    * Performs GET request to the server using Java RMI. The instance ID is either randomly created
-   * or the user is given option to specify the instanceID.
+   * or the user is given option to specify the instanceID. If the client cache is enabled, the value
+   * is served from the cache of the replica when it is cached. The caches are kept per replica port.
    * @param key value of the key to be queried
    * @param iId value of the instance ID to perform the query upon
    * @throws NotBoundException accessing instance that is not available
@@ -84,9 +103,14 @@ public class KeyValueClient extends ClientGlobals {
    */
   public void handleGETRequest(String key, int iId) throws NotBoundException, MalformedURLException{
     try {
-      Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(iId);
-      String resp = kvs.t.get(key);
-      this.log(kvs.k, "GET " + key, resp);
+      if(this.caches != null) {
+        int port = this.getPort(iId);
+        String value = this.caches.computeIfAbsent(port, p -> new ReadCache("//localhost:" + p + "/KVServer", CACHE_CAPACITY)).get(key);
+        this.log("KVServer_" + port, "GET " + key, value != null ? value : KEY_NOT_FOUND);
+      } else {
+        Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(iId);
+        this.log(kvs.k, "GET " + key, kvs.t.get(key));
+      }
     } catch(RemoteException | InterruptedException ex) {
       this.log("N/A", "GET " + key, REMOTE_EXCEP);
     }
@@ -94,7 +118,9 @@ public class KeyValueClient extends ClientGlobals {
 
   /**
    * Performs PUT request to the server using Java RMI. This is capable to perform both inserting
-   * and updating a key-value pair.
+   * and updating a key-value pair. The request is retried with the same session sequence number
+   * after a backoff if the server cannot be reached, fails to reach consensus or does not know
+   * the outcome, so the servers apply it only once.
    * @param key value of the key to inserted
    * @param value value to be inserted along with the key
    * @param iId value of the instance ID to perform the put upon
@@ -102,30 +128,131 @@ public class KeyValueClient extends ClientGlobals {
    * @throws MalformedURLException if the queried URL is malformed
    */
   public void handlePUTRequest(String key, String value, int iId) throws NotBoundException, MalformedURLException {
-    try {
-      Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(iId);
-      String resp = kvs.t.put(key, value);
-      this.log(kvs.k, "PUT " + key + ":" + value, resp);
-    } catch(RemoteException | InterruptedException ex) {
-      this.log("N/A", "PUT " + key + ":" + value, REMOTE_EXCEP);
+    long seq = ++this.seq;
+    for(int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+      try {
+        Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(iId);
+        String resp = kvs.t.put(key, value, this.sessionId, seq);
+        this.invalidate(key);
+        this.log(kvs.k, "PUT " + key + ":" + value, resp);
+        if(!resp.startsWith(FAILURE_PREFIX) && !resp.startsWith(UNKNOWN_PREFIX))
+          return;
+      } catch(RemoteException | InterruptedException ex) {
+        this.log("N/A", "PUT " + key + ":" + value, REMOTE_EXCEP);
+      }
+      if(attempt < MAX_RETRIES && !this.backoff(attempt))
+        return;
     }
   }
 
   /**
    * Performs DELETE request to the server using Java RMI. This deletes the key from the key-value
-   * store.
+   * store. The request is retried with the same session sequence number after a backoff on failure.
    * @param key value of the key to be deleted
    * @param iId value of the instance ID to perform the put upon
    * @throws NotBoundException accessing instance that is not available
    * @throws MalformedURLException if the queried URL is malformed
    */
   public void handleDELETERequest(String key, int iId) throws NotBoundException, MalformedURLException {
+    long seq = ++this.seq;
+    for(int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+      try {
+        Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(iId);
+        String resp = kvs.t.delete(key, this.sessionId, seq);
+        this.invalidate(key);
+        this.log(kvs.k, "DELETE " + key, resp);
+        if(!resp.startsWith(FAILURE_PREFIX) && !resp.startsWith(UNKNOWN_PREFIX))
+          return;
+      } catch(RemoteException | InterruptedException ex) {
+        this.log("N/A", "DELETE " + key, REMOTE_EXCEP);
+      }
+      if(attempt < MAX_RETRIES && !this.backoff(attempt))
+        return;
+    }
+  }
+
+  /**
+   * Watch the committed changes for a key prefix on a replica in a background thread. Changes are
+   * read in batches and the watch resumes from the last seen slot if the connection is lost. Slots
+   * are local to a replica, so the watch always reconnects to the same replica, and starts over
+   * with the live changes if the replica restarted in between.
+   * @param prefix prefix of the keys to be watched
+   * @param iId value of the instance ID to watch upon
+   */
+  public void handleWATCHRequest(String prefix, int iId) {
+    int id = iId == 6 ? 1 + new Random().nextInt(5) : iId;
+    Thread watcher = new Thread(() -> {
+      long slot = 0;
+      long epoch = 0;
+      while(true) {
+        try {
+          Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(id);
+          WatchInterface w = (WatchInterface) kvs.t;
+          while(true) {
+            ChangeBatch batch = w.watch(prefix, true, slot, WATCH_BATCH, WATCH_TIMEOUT);
+            if(slot > 0 && batch.epoch != epoch) {
+              this.log(kvs.k, "WATCH " + prefix, "Replica restarted, changes since slot " + slot + " may be missed");
+            }
+            for(ChangeEvent e : batch.events) {
+              this.log(kvs.k, "WATCH " + prefix, e.toString());
+            }
+            slot = batch.nextSlot;
+            epoch = batch.epoch;
+          }
+        } catch(RemoteException | NotBoundException | MalformedURLException ex) {
+          this.log("KVServer_" + id, "WATCH " + prefix, REMOTE_EXCEP);
+          try {
+            Thread.sleep(WATCH_TIMEOUT);
+          } catch(InterruptedException ie) {
+            return;
+          }
+        } catch(IllegalStateException ise) {
+          // fell behind the retained changes or the replica restarted, continue with the live changes
+          this.log("KVServer_" + id, "WATCH " + prefix, ise.getMessage());
+          slot = 0;
+        } catch(InterruptedException ie) {
+          return;
+        }
+      }
+    });
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  /**
+   * Drop a key from the caches of all the replicas after this client changed it.
+   * @param key key that was changed
+   */
+  private void invalidate(String key) {
+    if(this.caches != null) {
+      for(ReadCache c : this.caches.values())
+        c.invalidate(key);
+    }
+  }
+
+  /**
+   * Log the metrics of the caches of all the replicas.
+   */
+  public void logCacheStats() {
+    if(this.caches != null) {
+      for(Map.Entry<Integer, ReadCache> c : this.caches.entrySet())
+        this.log("KVServer_" + c.getKey(), "CACHE STATS", c.getValue().stats());
+    }
+  }
+
+  /**
+   * Wait before retrying a request, for a random time that grows exponentially with the attempt so
+   * that the retries of the clients do not keep hitting a struggling server at the same time.
+   * @param attempt number of the attempt that failed, starting at 0
+   * @return false if the wait was interrupted and the request should be given up
+   */
+  private boolean backoff(int attempt) {
     try {
-      Pair<String, KVStoreInterface> kvs = this.getKeyValueStoreInstance(iId);
-      String resp = kvs.t.delete(key);
-      this.log(kvs.k, "DELETE " + key, resp);
-    } catch(RemoteException | InterruptedException ex) {
-      this.log("N/A", "DELETE " + key, REMOTE_EXCEP);
+      Thread.sleep(1 + new Random().nextInt((int) (RETRY_BACKOFF << attempt)));
+      return true;
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
@@ -174,6 +301,15 @@ public class KeyValueClient extends ClientGlobals {
       return new Pair<>("KVServer_" + id, ((KVStoreInterface)Naming.lookup("//localhost:500" + id + "/KVServer")));
   }
 
+  /**
+   * Get the registry port of the specified or a random replica.
+   * @param id id of the instance, 6 for a random one
+   * @return port of the replica
+   */
+  private int getPort(int id) {
+    return id == 6 ? 5001 + new Random().nextInt(5) : 5000 + id;
+  }
+
   /**
    * Get a random Instance Id from the registry.
    * @return Pair of String and KeyValueStore instance
@@ -192,19 +328,26 @@ public class KeyValueClient extends ClientGlobals {
    * - Run the default set of key-value pairs.
    * - Provide a manual way to perform GET, PUT and DELETE operations. The user is given choice
    * to perform these operations.
-   * @param args pass any command-line arguments.
+   * @param args pass --cache to cache the values read from the replicas on the client.
    */
   public static void main(String[] args) {
+    // without these timeouts a call to a hung server blocks the client forever, and connecting to
+    // it blocks for a minute
+    if(System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null)
+      System.setProperty("sun.rmi.transport.tcp.responseTimeout", RESPONSE_TIMEOUT);
+    if(System.getProperty("sun.rmi.transport.tcp.handshakeTimeout") == null)
+      System.setProperty("sun.rmi.transport.tcp.handshakeTimeout", RESPONSE_TIMEOUT);
     try {
-      KeyValueClient kvc = new KeyValueClient();
+      KeyValueClient kvc = new KeyValueClient(args.length > 0 && Objects.equals(args[0], "--cache"));
       int data = kvc.numbInput(INITIAL_REQ, p -> Objects.equals(p, "1") || Objects.equals(p, "2"));
       if(data == 1) {
         kvc.runDefaults();
+        kvc.logCacheStats();
       } else {
         while(true) {
-          int req = kvc.numbInput(REQ_QUERY, p -> Objects.equals(p, "1") || Objects.equals(p, "2") || Objects.equals(p, "3") || Objects.equals(p, "4"));
+          int req = kvc.numbInput(REQ_QUERY, p -> Objects.equals(p, "1") || Objects.equals(p, "2") || Objects.equals(p, "3") || Objects.equals(p, "4") || Objects.equals(p, "5"));
           int instanceID = 6;
-          if(req != 4)
+          if(req != 5)
             instanceID = kvc.numbInput(REQUEST_SERVER_ID, p -> Objects.equals(p, "1") || Objects.equals(p, "2") || Objects.equals(p, "3") || Objects.equals(p, "4") || Objects.equals(p, "5") || Objects.equals(p, "6"));
           switch(req) {
             case 1:
@@ -217,6 +360,10 @@ public class KeyValueClient extends ClientGlobals {
               kvc.handleDELETERequest(kvc.stringInput(QUERY_KEY, INVALID_KEY), instanceID);
               break;
             case 4:
+              kvc.handleWATCHRequest(kvc.stringInput(QUERY_PREFIX, INVALID_KEY), instanceID);
+              break;
+            case 5:
+              kvc.logCacheStats();
               System.exit(0);
             default:
               System.out.println("Invalid option!");
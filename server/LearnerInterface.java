@@ -10,11 +10,13 @@ import java.rmi.RemoteException;
  */
 public interface LearnerInterface extends Remote {
   /**
-   * The learn method is used to inform the Learner of an accepted proposal.
+   * The learn method is used to inform the Learner of an accepted proposal. Values chosen for the
+   * slots of the log are applied in the order of their slots.
    *
-   * @param proposalId The unique identifier for the proposal.
+   * @param slot The slot of the log the value was accepted for.
+   * @param ballot The ballot the value was accepted with.
    * @param acceptedValue The value that has been accepted.
    * @throws RemoteException If a remote invocation error occurs.
    */
-  void learn(String proposalId, Object acceptedValue) throws RemoteException;
+  void learn(long slot, Ballot ballot, Operation acceptedValue) throws RemoteException;
 }
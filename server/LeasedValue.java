@@ -0,0 +1,27 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * A value read from a replica along with a lease for caching it on the client.
+ */
+public class LeasedValue implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public final String value;
+  public final long slot;
+  public final long leaseMillis;
+
+  /**
+   * Create a leased value.
+   * @param value value of the key, null if the key does not exist
+   * @param slot slot of the change feed the value was read at. Every change before the slot is
+   * reflected in the value.
+   * @param leaseMillis time for which the value may be cached
+   */
+  public LeasedValue(String value, long slot, long leaseMillis) {
+    this.value = value;
+    this.slot = slot;
+    this.leaseMillis = leaseMillis;
+  }
+}
@@ -0,0 +1,62 @@
+package server;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * class representing an operation on the key-value store. The type of the operation is kept as a
+ * compact opcode so that learners dispatch on a byte instead of comparing strings. It is written
+ * with OperationCodec when sent over RMI.
+ */
+public class Operation implements Externalizable {
+  private static final long serialVersionUID = 1L;
+
+  static final byte PUT = 0;
+  static final byte DELETE = 1;
+  static final byte COMPARE_AND_SET = 2;
+  static final byte PUT_IF_ABSENT = 3;
+  static final byte INCREMENT = 4;
+  // fills a log slot whose value was lost, applying it changes nothing
+  static final byte NOOP = 5;
+
+  byte type;
+  String key;
+  String value;
+  String expected;
+  String sessionId;
+  long seq;
+  // random id given by the proposing server, to tell whether the value chosen for a slot is this one
+  long id;
+
+  Operation(byte type, String key, String value, String expected) {
+    this.type = type;
+    this.key = key;
+    this.value = value;
+    this.expected = expected;
+  }
+
+  Operation(byte type, String key, String value) {
+    this(type, key, value, null);
+  }
+
+  Operation(byte type, String key) {
+    this(type, key, null, null);
+  }
+
+  /**
+   * Create an empty operation, used when reading an operation sent over RMI.
+   */
+  public Operation() {}
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    OperationCodec.writeOperation(out, this);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    OperationCodec.readOperation(in, this);
+  }
+}
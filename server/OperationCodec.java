@@ -0,0 +1,363 @@
+package server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of operations, ballots and batches of committed changes, used when they
+ * are sent over RMI. Every message starts with a version byte. Lengths and numbers are written as varints,
+ * the operation type as its opcode and strings as UTF-8 bytes. Messages are built in a buffer that
+ * is reused by each thread, and messages longer than MAX_MESSAGE are rejected.
+ */
+class OperationCodec {
+  static final byte VERSION = 1;
+
+  private static final int HAS_VALUE = 1;
+  private static final int HAS_EXPECTED = 1 << 1;
+  private static final int HAS_SESSION = 1 << 2;
+  private static final int HAS_ID = 1 << 3;
+
+  static final int MAX_MESSAGE = 16 << 20;
+  // buffers grown past this size for a large message are dropped instead of kept for the thread
+  private static final int MAX_RETAINED = 64 << 10;
+
+  private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+  private OperationCodec() {}
+
+  /**
+   * Write an operation to the given output as a length-prefixed message.
+   * @param out output to be written to
+   * @param op operation to be written
+   * @throws IOException if the output cannot be written
+   */
+  static void writeOperation(DataOutput out, Operation op) throws IOException {
+    Buffer b = BUFFERS.get();
+    b.reset();
+    b.put(VERSION);
+    encodeOperation(b, op);
+    flush(out, b);
+  }
+
+  /**
+   * Read a length-prefixed operation message from the given input into the operation.
+   * @param in input to be read from
+   * @param op operation to be filled in
+   * @throws IOException if the input cannot be read or is malformed
+   */
+  static void readOperation(DataInput in, Operation op) throws IOException {
+    Buffer b = fill(in);
+    try {
+      checkVersion(b);
+      decodeOperation(b, op);
+    } finally {
+      b.trim();
+    }
+  }
+
+  /**
+   * Write a ballot to the given output as a length-prefixed message.
+   * @param out output to be written to
+   * @param ballot ballot to be written
+   * @throws IOException if the output cannot be written
+   */
+  static void writeBallot(DataOutput out, Ballot ballot) throws IOException {
+    Buffer b = BUFFERS.get();
+    b.reset();
+    b.put(VERSION);
+    b.putVarLong(ballot.round);
+    b.putVarLong(ballot.serverId);
+    flush(out, b);
+  }
+
+  /**
+   * Read a length-prefixed ballot message from the given input into the ballot.
+   * @param in input to be read from
+   * @param ballot ballot to be filled in
+   * @throws IOException if the input cannot be read or is malformed
+   */
+  static void readBallot(DataInput in, Ballot ballot) throws IOException {
+    Buffer b = fill(in);
+    try {
+      checkVersion(b);
+      ballot.round = b.getVarLong();
+      ballot.serverId = (int) b.getVarLong();
+    } finally {
+      b.trim();
+    }
+  }
+
+  /**
+   * Write a batch of committed changes to the given output as a length-prefixed message.
+   * @param out output to be written to
+   * @param batch batch to be written
+   * @throws IOException if the output cannot be written
+   */
+  static void writeChanges(DataOutput out, ChangeBatch batch) throws IOException {
+    Buffer b = BUFFERS.get();
+    b.reset();
+    b.put(VERSION);
+    b.putVarLong(batch.nextSlot);
+    b.putLong(batch.epoch);
+    b.putVarLong(batch.events.size());
+    for(ChangeEvent e : batch.events) {
+      b.putVarLong(e.slot);
+      b.put(e.type);
+      b.put(e.value != null ? HAS_VALUE : 0);
+      b.putString(e.key);
+      if(e.value != null)
+        b.putString(e.value);
+    }
+    flush(out, b);
+  }
+
+  /**
+   * Read a length-prefixed batch of committed changes from the given input into the batch.
+   * @param in input to be read from
+   * @param batch batch to be filled in
+   * @throws IOException if the input cannot be read or is malformed
+   */
+  static void readChanges(DataInput in, ChangeBatch batch) throws IOException {
+    Buffer b = fill(in);
+    try {
+      checkVersion(b);
+      long nextSlot = b.getVarLong();
+      long epoch = b.getLong();
+      long count = b.getVarLong();
+      // every change takes more than a byte, so a larger count cannot be in the message
+      if(count < 0 || count > b.size - b.pos) {
+        throw new IOException("Malformed change count: " + count);
+      }
+      List<ChangeEvent> events = new ArrayList<>((int) count);
+      for(int i = 0; i < count; i++) {
+        long slot = b.getVarLong();
+        byte type = b.get();
+        int flags = b.get();
+        String key = b.getString();
+        String value = (flags & HAS_VALUE) != 0 ? b.getString() : null;
+        events.add(new ChangeEvent(slot, type, key, value));
+      }
+      batch.nextSlot = nextSlot;
+      batch.epoch = epoch;
+      batch.events = events;
+    } finally {
+      b.trim();
+    }
+  }
+
+  private static void encodeOperation(Buffer b, Operation op) {
+    int flags = (op.value != null ? HAS_VALUE : 0)
+        | (op.expected != null ? HAS_EXPECTED : 0)
+        | (op.sessionId != null ? HAS_SESSION : 0)
+        | (op.id != 0 ? HAS_ID : 0);
+    b.put(op.type);
+    b.put(flags);
+    b.putString(op.key);
+    if(op.value != null)
+      b.putString(op.value);
+    if(op.expected != null)
+      b.putString(op.expected);
+    if(op.sessionId != null) {
+      b.putString(op.sessionId);
+      b.putVarLong(op.seq);
+    }
+    if(op.id != 0)
+      b.putLong(op.id);
+  }
+
+  private static void decodeOperation(Buffer b, Operation op) throws IOException {
+    op.type = b.get();
+    int flags = b.get();
+    op.key = b.getString();
+    op.value = (flags & HAS_VALUE) != 0 ? b.getString() : null;
+    op.expected = (flags & HAS_EXPECTED) != 0 ? b.getString() : null;
+    if((flags & HAS_SESSION) != 0) {
+      op.sessionId = b.getString();
+      op.seq = b.getVarLong();
+    }
+    if((flags & HAS_ID) != 0)
+      op.id = b.getLong();
+  }
+
+  private static void checkVersion(Buffer b) throws IOException {
+    byte version = b.get();
+    if(version < 1 || version > VERSION) {
+      throw new IOException("Unsupported codec version: " + version);
+    }
+  }
+
+  private static void flush(DataOutput out, Buffer b) throws IOException {
+    int len = b.size;
+    if(len > MAX_MESSAGE) {
+      b.trim();
+      throw new IOException("Message of " + len + " bytes exceeds the limit of " + MAX_MESSAGE);
+    }
+    // varint length prefix, so the reader knows how much to read
+    while((len & ~0x7F) != 0) {
+      out.writeByte((len & 0x7F) | 0x80);
+      len >>>= 7;
+    }
+    out.writeByte(len);
+    try {
+      out.write(b.bytes, 0, b.size);
+    } finally {
+      b.trim();
+    }
+  }
+
+  private static Buffer fill(DataInput in) throws IOException {
+    // decode into a long, so that a corrupt length cannot wrap around to a negative int
+    long len = 0;
+    for(int shift = 0; ; shift += 7) {
+      if(shift > 35) {
+        throw new IOException("Malformed message length");
+      }
+      int v = in.readUnsignedByte();
+      len |= (long) (v & 0x7F) << shift;
+      if((v & 0x80) == 0)
+        break;
+    }
+    if(len > MAX_MESSAGE) {
+      throw new IOException("Message of " + len + " bytes exceeds the limit of " + MAX_MESSAGE);
+    }
+    Buffer b = BUFFERS.get();
+    b.reset();
+    b.ensure((int) len);
+    in.readFully(b.bytes, 0, (int) len);
+    b.size = (int) len;
+    return b;
+  }
+
+  /**
+   * Growable byte buffer with a read position, reused across messages.
+   */
+  private static class Buffer {
+    byte[] bytes = new byte[256];
+    int size;
+    int pos;
+
+    void reset() {
+      this.size = 0;
+      this.pos = 0;
+    }
+
+    void trim() {
+      if(this.bytes.length > MAX_RETAINED)
+        this.bytes = new byte[256];
+      reset();
+    }
+
+    void ensure(int capacity) {
+      if(capacity > this.bytes.length) {
+        byte[] grown = new byte[Math.max(capacity, this.bytes.length * 2)];
+        System.arraycopy(this.bytes, 0, grown, 0, this.size);
+        this.bytes = grown;
+      }
+    }
+
+    void put(int v) {
+      ensure(this.size + 1);
+      this.bytes[this.size++] = (byte) v;
+    }
+
+    void putVarLong(long v) {
+      while((v & ~0x7FL) != 0) {
+        put((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      put((int) v);
+    }
+
+    void putString(String s) {
+      int len = utf8Length(s);
+      putVarLong(len);
+      ensure(this.size + len);
+      for(int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if(c < 0x80) {
+          this.bytes[this.size++] = (byte) c;
+        } else if(c < 0x800) {
+          this.bytes[this.size++] = (byte) (0xC0 | (c >> 6));
+          this.bytes[this.size++] = (byte) (0x80 | (c & 0x3F));
+        } else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          this.bytes[this.size++] = (byte) (0xF0 | (cp >> 18));
+          this.bytes[this.size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+          this.bytes[this.size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+          this.bytes[this.size++] = (byte) (0x80 | (cp & 0x3F));
+        } else if(Character.isSurrogate(c)) {
+          // unpaired surrogate, encoded as '?' like String.getBytes does
+          this.bytes[this.size++] = (byte) '?';
+        } else {
+          this.bytes[this.size++] = (byte) (0xE0 | (c >> 12));
+          this.bytes[this.size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          this.bytes[this.size++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+    }
+
+    void putLong(long v) {
+      for(int i = 56; i >= 0; i -= 8)
+        put((int) (v >>> i));
+    }
+
+    byte get() throws IOException {
+      if(this.pos >= this.size) {
+        throw new IOException("Unexpected end of message");
+      }
+      return this.bytes[this.pos++];
+    }
+
+    long getLong() throws IOException {
+      long v = 0;
+      for(int i = 0; i < 8; i++)
+        v = (v << 8) | (get() & 0xFF);
+      return v;
+    }
+
+    long getVarLong() throws IOException {
+      long v = 0;
+      for(int shift = 0; shift < 64; shift += 7) {
+        byte b = get();
+        v |= (long) (b & 0x7F) << shift;
+        if((b & 0x80) == 0)
+          return v;
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    String getString() throws IOException {
+      long len = getVarLong();
+      if(len < 0 || len > this.size - this.pos) {
+        throw new IOException("Malformed string length");
+      }
+      String s = new String(this.bytes, this.pos, (int) len, StandardCharsets.UTF_8);
+      this.pos += (int) len;
+      return s;
+    }
+
+    private static int utf8Length(String s) {
+      int len = 0;
+      for(int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if(c < 0x80) {
+          len += 1;
+        } else if(c < 0x800) {
+          len += 2;
+        } else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+          len += 4;
+          i++;
+        } else if(Character.isSurrogate(c)) {
+          len += 1;
+        } else {
+          len += 3;
+        }
+      }
+      return len;
+    }
+  }
+}
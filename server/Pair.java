@@ -0,0 +1,22 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * Create a Pair Object with any two generic types.
+ * @param <K> Generic K that is used in pair creation
+ * @param <T> Generic T that is used in pair creation
+ */
+public class Pair<K, T> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  T t;
+  K k;
+
+  Pair(K k, T t) {
+    this.k = k;
+    this.t = t;
+  }
+
+  Pair() {}
+}
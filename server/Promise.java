@@ -0,0 +1,24 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * The state of an acceptor for one slot of the log, sent back in reply to a prepare. It holds the
+ * highest ballot the acceptor promised and the last value it accepted together with the ballot it
+ * was accepted with, so that a proposer can carry on with a value that may already be chosen.
+ */
+public class Promise implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  Ballot promised;
+  Ballot acceptedBallot;
+  Operation accepted;
+
+  Promise() {}
+
+  Promise(Promise other) {
+    this.promised = other.promised;
+    this.acceptedBallot = other.acceptedBallot;
+    this.accepted = other.accepted;
+  }
+}
@@ -2,6 +2,7 @@ package server;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Map;
 
 /**
  * The ProposerInterface provides a remote method to initiate a proposal in the Paxos consensus algorithm.
@@ -10,11 +11,19 @@ import java.rmi.RemoteException;
 public interface ProposerInterface extends Remote {
 
   /**
-   * Initiates a proposal with the given proposal ID and value.
+   * Initiates a proposal with the given value. The proposer picks the ballot of the proposal.
    *
-   * @param proposalId The unique identifier for the proposal.
    * @param proposalValue The value being proposed.
    * @throws RemoteException If a remote invocation error occurs.
    */
-  boolean propose(String proposalId, Object proposalValue) throws RemoteException, InterruptedException;
+  boolean propose(Operation proposalValue) throws RemoteException, InterruptedException;
+
+  /**
+   * Get the contention counters of the proposer: the number of proposals rejected in favour of a
+   * higher one, the number of retries and the current timeout for the acceptors.
+   *
+   * @return map of the counter name to its value
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  Map<String, Long> getProposerStats() throws RemoteException;
 }
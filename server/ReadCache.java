@@ -0,0 +1,288 @@
+package server;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A client-side cache of the values read from a single replica. Values are cached for the lease
+ * the replica grants with them, and dropped as soon as the change feed of the replica reports a
+ * change to their key, so a cached read is exact while the feed is followed and at most a lease
+ * old otherwise. The cache is bounded: entries are kept in LRU order and a new key is only admitted
+ * in place of the LRU entry if it was read more often recently (TinyLFU admission). The replica is
+ * looked up again after a failed call, so a restarted replica is picked up once it is back.
+ */
+class ReadCache {
+  private static final int WATCH_BATCH = 128;
+
+  private final String url;
+  private final Object stubLock = new Object();
+  private KVStoreInterface kvs;
+  private final int capacity;
+  private final LinkedHashMap<String, Entry> entries;
+  private final FrequencySketch sketch;
+  private final Thread watcher;
+
+  // slot up to which the changes of the replica were applied to the cache, -1 before the first
+  // batch of the change feed, and the time the change feed last answered
+  private long feedSlot = -1;
+  private long feedSeenAt = 0;
+
+  private long hits;
+  private long misses;
+  private long invalidations;
+  private long expirations;
+  private long rejections;
+  private long servedAgeSum;
+  private long servedAgeMax;
+
+  /**
+   * Create a cache in front of a replica and start following its change feed.
+   * @param url RMI URL of the replica to be read from
+   * @param capacity maximum number of cached keys
+   */
+  ReadCache(String url, int capacity) {
+    this.url = url;
+    this.capacity = capacity;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    this.sketch = new FrequencySketch(capacity);
+    this.watcher = new Thread(this::follow);
+    this.watcher.setDaemon(true);
+    this.watcher.start();
+  }
+
+  /**
+   * Get a value from the cache, or from the replica if it is not cached.
+   * @param key key to be read
+   * @return value of the key, null if the key does not exist
+   * @throws RemoteException if any issue in connecting to server
+   */
+  String get(String key) throws RemoteException {
+    synchronized(this) {
+      this.sketch.increment(key);
+      Entry e = this.entries.get(key);
+      long now = System.currentTimeMillis();
+      if(e != null) {
+        if(now < e.expiresAt && this.isFollowing(now)) {
+          this.hits += 1;
+          this.servedAgeSum += now - e.readAt;
+          this.servedAgeMax = Math.max(this.servedAgeMax, now - e.readAt);
+          return e.value;
+        }
+        this.entries.remove(key);
+        this.expirations += 1;
+      }
+      this.misses += 1;
+    }
+
+    long readAt = System.currentTimeMillis();
+    KVStoreInterface kvs = this.lookup();
+    LeasedValue lv;
+    try {
+      lv = kvs.getWithLease(key);
+    } catch(RemoteException e) {
+      this.reset(kvs);
+      throw e;
+    }
+    synchronized(this) {
+      // the changes between the read and the feed slot were applied before the entry existed, so
+      // the value can only be cached if the feed has not moved past the read yet
+      if(this.feedSlot >= 0 && lv.slot >= this.feedSlot) {
+        this.admit(key, new Entry(lv.value, readAt, readAt + lv.leaseMillis));
+      }
+    }
+    return lv.value;
+  }
+
+  /**
+   * Drop a key from the cache, used after the client itself changed the key so that it reads its
+   * own write without waiting for the change feed.
+   * @param key key to be dropped
+   */
+  synchronized void invalidate(String key) {
+    if(this.entries.remove(key) != null)
+      this.invalidations += 1;
+  }
+
+  /**
+   * Get the stub of the replica, looking it up if there is none.
+   * @return stub of the replica
+   * @throws RemoteException if the replica cannot be looked up
+   */
+  private KVStoreInterface lookup() throws RemoteException {
+    synchronized(this.stubLock) {
+      if(this.kvs == null) {
+        try {
+          this.kvs = (KVStoreInterface) Naming.lookup(this.url);
+        } catch(NotBoundException | MalformedURLException e) {
+          throw new RemoteException("Replica is not available at " + this.url, e);
+        }
+      }
+      return this.kvs;
+    }
+  }
+
+  /**
+   * Drop the stub of the replica after a failed call, unless it was already replaced.
+   * @param failed stub the call failed on
+   */
+  private void reset(KVStoreInterface failed) {
+    synchronized(this.stubLock) {
+      if(this.kvs == failed)
+        this.kvs = null;
+    }
+  }
+
+  /**
+   * Check whether the change feed answered within a lease, so that invalidations are up to date.
+   */
+  private boolean isFollowing(long now) {
+    return this.feedSlot >= 0 && now - this.feedSeenAt < Globals.READ_LEASE;
+  }
+
+  /**
+   * Insert an entry, evicting the LRU entry if the cache is full and the new key was read more
+   * often than it.
+   */
+  private void admit(String key, Entry entry) {
+    if(this.entries.size() >= this.capacity && !this.entries.containsKey(key)) {
+      Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+      Map.Entry<String, Entry> victim = it.next();
+      if(this.sketch.frequency(key) <= this.sketch.frequency(victim.getKey())) {
+        this.rejections += 1;
+        return;
+      }
+      it.remove();
+    }
+    this.entries.put(key, entry);
+  }
+
+  /**
+   * Follow the change feed of the replica and drop the entries of the changed keys. Only the keys
+   * of the changes are read from the feed. If the feed cannot be reached or was missed, the whole
+   * cache is dropped.
+   */
+  private void follow() {
+    long slot = 0;
+    long epoch = 0;
+    while(true) {
+      KVStoreInterface kvs = null;
+      try {
+        kvs = this.lookup();
+        ChangeBatch batch = ((WatchInterface) kvs).watchKeys("", true, slot, WATCH_BATCH, Globals.READ_LEASE / 2);
+        synchronized(this) {
+          if(this.feedSlot >= 0 && batch.epoch != epoch) {
+            // the replica restarted, so the slots of the cached reads belong to its old feed
+            this.entries.clear();
+          }
+          for(ChangeEvent e : batch.events) {
+            if(this.entries.remove(e.key) != null)
+              this.invalidations += 1;
+          }
+          this.feedSlot = batch.nextSlot;
+          this.feedSeenAt = System.currentTimeMillis();
+        }
+        slot = batch.nextSlot;
+        epoch = batch.epoch;
+      } catch(RemoteException | IllegalStateException e) {
+        if(e instanceof RemoteException && kvs != null)
+          this.reset(kvs);
+        synchronized(this) {
+          this.entries.clear();
+          this.feedSlot = -1;
+        }
+        slot = 0;
+        try {
+          Thread.sleep(Globals.READ_LEASE);
+        } catch(InterruptedException ie) {
+          return;
+        }
+      } catch(InterruptedException ie) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Get the hit rate and staleness metrics of the cache.
+   * @return metrics as a printable string
+   */
+  synchronized String stats() {
+    long reads = this.hits + this.misses;
+    return String.format("hits=%d misses=%d hitRate=%.2f invalidations=%d expirations=%d rejections=%d "
+            + "avgServedAgeMs=%.1f maxServedAgeMs=%d",
+        this.hits, this.misses, reads == 0 ? 0.0 : this.hits / (double) reads, this.invalidations,
+        this.expirations, this.rejections, this.hits == 0 ? 0.0 : this.servedAgeSum / (double) this.hits,
+        this.servedAgeMax);
+  }
+
+  /**
+   * A cached value along with the time it was read and the time its lease runs out.
+   */
+  private static class Entry {
+    final String value;
+    final long readAt;
+    final long expiresAt;
+
+    Entry(String value, long readAt, long expiresAt) {
+      this.value = value;
+      this.readAt = readAt;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Approximate recent read frequency of the keys, kept in a count-min sketch of 4-bit-sized
+   * counters that are halved periodically so that old reads are forgotten.
+   */
+  private static class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int[][] counts;
+    private final int mask;
+    private final int resetAt;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+      int width = Integer.highestOneBit(Math.max(16, capacity * 4) - 1) << 1;
+      this.counts = new int[DEPTH][width];
+      this.mask = width - 1;
+      this.resetAt = 10 * Math.max(16, capacity);
+    }
+
+    void increment(String key) {
+      int h = key.hashCode();
+      for(int i = 0; i < DEPTH; i++) {
+        int j = index(h, i);
+        if(this.counts[i][j] < MAX_COUNT)
+          this.counts[i][j] += 1;
+      }
+      if(++this.additions >= this.resetAt) {
+        for(int[] row : this.counts) {
+          for(int j = 0; j < row.length; j++)
+            row[j] >>>= 1;
+        }
+        this.additions /= 2;
+      }
+    }
+
+    int frequency(String key) {
+      int h = key.hashCode();
+      int min = MAX_COUNT;
+      for(int i = 0; i < DEPTH; i++)
+        min = Math.min(min, this.counts[i][index(h, i)]);
+      return min;
+    }
+
+    private int index(int h, int i) {
+      int x = h * SEEDS[i];
+      return (x ^ (x >>> 16)) & this.mask;
+    }
+  }
+}
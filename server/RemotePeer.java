@@ -0,0 +1,91 @@
+package server;
+
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The acceptor and learner of a replica running in another process, reached over RMI. The replica
+ * is looked up again after a failed call, so a restarted replica is picked up once it is back.
+ */
+class RemotePeer implements AcceptorInterface, LearnerInterface {
+  private final String url;
+  private Remote stub;
+
+  /**
+   * Create a peer for the replica bound at the given URL.
+   * @param url RMI URL of the replica
+   */
+  RemotePeer(String url) {
+    this.url = url;
+  }
+
+  @Override
+  public Promise prepare(long slot, Ballot ballot) throws RemoteException {
+    return this.invoke(stub -> ((AcceptorInterface) stub).prepare(slot, ballot));
+  }
+
+  @Override
+  public Ballot accept(long slot, Ballot ballot, Operation proposalValue) throws RemoteException {
+    return this.invoke(stub -> ((AcceptorInterface) stub).accept(slot, ballot, proposalValue));
+  }
+
+  @Override
+  public void learn(long slot, Ballot ballot, Operation acceptedValue) throws RemoteException {
+    this.invoke(stub -> {
+      ((LearnerInterface) stub).learn(slot, ballot, acceptedValue);
+      return null;
+    });
+  }
+
+  /**
+   * Make a call on the replica. A call that did not reach the replica because the stub is from
+   * before a restart of the replica is made once more on a fresh stub, so the first message after
+   * the restart is not lost.
+   * @param call call to be made on the stub of the replica
+   * @return result of the call
+   * @throws RemoteException if the replica cannot be reached
+   */
+  private <T> T invoke(Call<T> call) throws RemoteException {
+    for(int attempt = 0; ; attempt++) {
+      Remote stub = this.lookup();
+      try {
+        return call.call(stub);
+      } catch(ConnectException | NoSuchObjectException e) {
+        this.reset(stub);
+        if(attempt > 0)
+          throw e;
+      } catch(RemoteException e) {
+        this.reset(stub);
+        throw e;
+      }
+    }
+  }
+
+  private synchronized Remote lookup() throws RemoteException {
+    if(this.stub == null) {
+      try {
+        this.stub = Naming.lookup(this.url);
+      } catch(NotBoundException | MalformedURLException e) {
+        throw new RemoteException("Replica is not available at " + this.url, e);
+      }
+    }
+    return this.stub;
+  }
+
+  private synchronized void reset(Remote failed) {
+    if(this.stub == failed)
+      this.stub = null;
+  }
+
+  /**
+   * A call on the stub of a replica.
+   */
+  private interface Call<T> {
+    T call(Remote stub) throws RemoteException;
+  }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+/**
+ * Runs a single replica of the cluster in its own process. The replicas are read from a cluster
+ * config file and the other replicas are reached over RMI. A replica keeps its state in memory only,
+ * so a replica that was stopped must not be launched again into a running cluster: it would come
+ * back with an empty store and without the promises it made as an acceptor.
+ */
+public class ReplicaLauncher {
+
+  /**
+   * Time after which a call to a replica that does not respond fails, so that a paused replica is
+   * treated as down instead of blocking the others. It also bounds the connection handshake, which
+   * otherwise waits a minute on a paused replica that still accepts connections.
+   */
+  private static final String RESPONSE_TIMEOUT = "2000";
+
+  /**
+   * The main method to launch a replica.
+   *
+   * @param args path of the cluster config file and the id of the replica to be launched.
+   */
+  public static void main(String[] args) {
+    if(args.length != 2) {
+      System.err.println("Usage: java -cp \".:lib/*\" server.ReplicaLauncher <cluster config> <replica id>");
+      System.exit(1);
+    }
+    try {
+      ClusterConfig config = ClusterConfig.load(args[0]);
+      int serverId = Integer.parseInt(args[1]);
+      if(System.getProperty("java.rmi.server.hostname") == null)
+        System.setProperty("java.rmi.server.hostname", config.host(serverId));
+      if(System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null)
+        System.setProperty("sun.rmi.transport.tcp.responseTimeout", RESPONSE_TIMEOUT);
+      if(System.getProperty("sun.rmi.transport.tcp.handshakeTimeout") == null)
+        System.setProperty("sun.rmi.transport.tcp.handshakeTimeout", RESPONSE_TIMEOUT);
+
+      Registry registry = LocateRegistry.createRegistry(config.port(serverId));
+      Server server = new Server(serverId, config.size());
+
+      // the replica talks to itself directly and to the others over RMI
+      AcceptorInterface[] acceptors = new AcceptorInterface[config.size()];
+      LearnerInterface[] learners = new LearnerInterface[config.size()];
+      for(int i = 0; i < config.size(); i++) {
+        if(i == serverId) {
+          acceptors[i] = server;
+          learners[i] = server;
+        } else {
+          RemotePeer peer = new RemotePeer(config.url(i));
+          acceptors[i] = peer;
+          learners[i] = peer;
+        }
+      }
+      server.setAcceptors(acceptors);
+      server.setLearners(learners);
+      registry.rebind("KVServer", server);
+
+      System.out.println("Server " + serverId + " is ready at port " + config.port(serverId));
+    } catch(Exception e) {
+      System.err.println("Server exception: " + e.toString());
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
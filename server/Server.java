@@ -1,48 +1,91 @@
 package server;
 
+import java.rmi.ConnectException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
-
-
-/**
- * A global interface that contains all the global variables to used in the server class.
- */
-interface Globals {
-  public static int PROPOSER_TIMEOUT=100;
-  public static int MAJORITY_CNT=3;
-  public static int ACCEPTOR_DOWN_TIME=60;
-}
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Implementation of a Server class that represents a node in a Paxos distributed consensus system.
  * This server plays the role of Proposer, Acceptor, and Learner in the Paxos algorithm, and it also handles key-value store operations.
  */
-public class Server extends UnicastRemoteObject implements ProposerInterface, AcceptorInterface, LearnerInterface, KVStoreInterface, Globals  {
+public class Server extends UnicastRemoteObject implements ProposerInterface, AcceptorInterface, LearnerInterface, KVStoreInterface, WatchInterface, FaultInterface, Globals  {
   private ConcurrentHashMap<String, String> kvStore = new ConcurrentHashMap<>();
-  private Map<String, Pair<String, Operation>> log;
+  // state of the acceptor for each slot of the log, the slots below logFloor are forgotten
+  private TreeMap<Long, Promise> log;
+  private long logFloor = 0;
   private AcceptorInterface[] acceptors;
   private LearnerInterface[] learners;
   private int numServers;
+  private int majority;
   private int serverId;
-  private Map<String, Pair<Integer, Boolean>> lrnCnt;
+  // learns of the slots that are not chosen yet, counted per ballot
+  private Map<Long, Map<Ballot, Integer>> lrnCnt;
+  // values chosen for slots after nextApply, kept until the slots before them are applied
+  private TreeMap<Long, Operation> chosen;
+  private long nextApply = 1;
+  // time since the learner has been missing the slot at nextApply, 0 if it is not
+  private long gapSince = 0;
 
   private boolean acceptorDown = false;
   private long acceptorDownTime = 0;
-  private Map<String, Boolean> outData;
+  // slots reserved by the proposers of this server, with the value applied for them once applied
+  private Map<Long, Pair<Operation, Result>> outData;
+  private long nextSlot = 1;
+  private ChangeFeed changeFeed;
+  private Map<String, Pair<Long, Result>> sessions;
+  private long lastBallot = 0;
+  // highest ballot an acceptor rejected a proposal of this server for
+  private Ballot highestSeen;
+  // the latency estimate starts at PROPOSER_TIMEOUT and follows the observed rounds from there
+  private volatile double latency = PROPOSER_TIMEOUT;
+  private volatile double latencyVar = 0;
+  private final AtomicLong conflicts = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private volatile long injectedDelay = 0;
+
+  // acceptors and learners use their own locks, so that a proposer waiting on the other replicas
+  // never blocks the acceptor or the learner of its own replica
+  private final Object acceptorLock = new Object();
+  private final Object learnerLock = new Object();
+  // state of the proposer shared by the proposals of this server running at the same time
+  private final Object proposerLock = new Object();
+
+  // threads that send the requests of the proposer to the acceptors at the same time
+  private final ExecutorService rpcPool = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "paxos-rpc");
+    t.setDaemon(true);
+    return t;
+  });
 
   /**
    * Set an acceptor to Down and note down at what time did the acceptor went down.
    */
   public void setAcceptorDownToTrue() {
-    this.acceptorDown = true;
-    this.acceptorDownTime = System.currentTimeMillis() / 1000L;
+    synchronized(this.acceptorLock) {
+      this.acceptorDown = true;
+      this.acceptorDownTime = System.currentTimeMillis() / 1000L;
+    }
   }
 
   /**
@@ -52,10 +95,22 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
    */
   public Server(int serverId, int numServers) throws RemoteException {
     this.numServers = numServers;
+    this.majority = numServers / 2 + 1;
     this.serverId = serverId;
-    this.log = new HashMap<>();
+    this.log = new TreeMap<>();
     this.lrnCnt = new HashMap<>();
+    this.chosen = new TreeMap<>();
     this.outData = new HashMap<>();
+    this.changeFeed = new ChangeFeed(FEED_CAPACITY);
+    this.sessions = new LinkedHashMap<>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Pair<Long, Result>> eldest) {
+        return size() > SESSION_CAPACITY;
+      }
+    };
+    Thread catchUp = new Thread(this::catchUp, "paxos-catchup");
+    catchUp.setDaemon(true);
+    catchUp.start();
   }
 
   /**
@@ -71,7 +126,7 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
    * @param req request received by the server
    * @param resp response sent by the server
    */
-  private void log(String req, String resp) throws RemoteException {
+  private void log(String req, String resp) {
     System.out.println(System.currentTimeMillis() + " -- Server:" + this.serverId + " Request: " + req + " Response: " + resp);
   }
 
@@ -92,10 +147,32 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
    * @throws InterruptedException if sleep is interrupted
    */
   @Override
-  public synchronized String put(String key, String value)
+  public String put(String key, String value)
       throws RemoteException, InterruptedException {
-    if(proposeOperation(new Operation("PUT", key, value)))
+    return put(key, value, null, 0);
+  }
+
+  /**
+   * insert or update a value into the key-value store.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be inserted.
+   * @param value value to be inserted
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully updated
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String put(String key, String value, String sessionId, long seq)
+      throws RemoteException, InterruptedException {
+    requireArgument(key, "key");
+    requireArgument(value, "value");
+    Result r = proposeOperation(new Operation(Operation.PUT, key, value), sessionId, seq);
+    if(r.status == Result.APPLIED)
       return "Successfully inserted/updated the value";
+    else if(r.status == Result.UNKNOWN)
+      return OUTCOME_UNKNOWN;
     else
       return "Exception in inserting/updating the value";
   }
@@ -108,13 +185,169 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
    * @throws InterruptedException if sleep is interrupted
    */
   @Override
-  public synchronized String delete(String key) throws RemoteException, InterruptedException {
-    if(proposeOperation(new Operation("DELETE", key, null)))
+  public String delete(String key)
+      throws RemoteException, InterruptedException {
+    return delete(key, null, 0);
+  }
+
+  /**
+   * Delete a value from the key-value store.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be deleted
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully deleted
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String delete(String key, String sessionId, long seq) throws RemoteException, InterruptedException {
+    requireArgument(key, "key");
+    Result r = proposeOperation(new Operation(Operation.DELETE, key), sessionId, seq);
+    if(r.status == Result.APPLIED)
       return "Successfully deleted the value";
+    else if(r.status == Result.NOT_APPLIED)
+      return "Key does not exist to delete";
+    else if(r.status == Result.UNKNOWN)
+      return OUTCOME_UNKNOWN;
     else
       return "Exception in deleting the value";
   }
 
+  /**
+   * Replace the value of a key only if its current value matches the expected value.
+   * @param key key to be updated
+   * @param expected value the key is expected to hold, null if the key is expected to be absent
+   * @param newValue value to be set
+   * @return response if the value is successfully swapped, or the current value if it does not match
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String compareAndSet(String key, String expected, String newValue)
+      throws RemoteException, InterruptedException {
+    return compareAndSet(key, expected, newValue, null, 0);
+  }
+
+  /**
+   * Replace the value of a key only if its current value matches the expected value.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be updated
+   * @param expected value the key is expected to hold, null if the key is expected to be absent
+   * @param newValue value to be set
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully swapped, or the current value if it does not match
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String compareAndSet(String key, String expected, String newValue, String sessionId, long seq)
+      throws RemoteException, InterruptedException {
+    requireArgument(key, "key");
+    requireArgument(newValue, "newValue");
+    Result r = proposeOperation(new Operation(Operation.COMPARE_AND_SET, key, newValue, expected), sessionId, seq);
+    if(r.status == Result.APPLIED)
+      return "Successfully swapped the value";
+    else if(r.status == Result.NOT_APPLIED)
+      return "Current value does not match: " + (r.value != null ? r.value : "key does not exist");
+    else if(r.status == Result.UNKNOWN)
+      return OUTCOME_UNKNOWN;
+    else
+      return "Exception in swapping the value";
+  }
+
+  /**
+   * Insert a value into the key-value store only if the key does not exist yet.
+   * @param key key to be inserted
+   * @param value value to be inserted
+   * @return response if the value is successfully inserted, or the existing value
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String putIfAbsent(String key, String value)
+      throws RemoteException, InterruptedException {
+    return putIfAbsent(key, value, null, 0);
+  }
+
+  /**
+   * Insert a value into the key-value store only if the key does not exist yet.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be inserted
+   * @param value value to be inserted
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response if the value is successfully inserted, or the existing value
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String putIfAbsent(String key, String value, String sessionId, long seq)
+      throws RemoteException, InterruptedException {
+    requireArgument(key, "key");
+    requireArgument(value, "value");
+    Result r = proposeOperation(new Operation(Operation.PUT_IF_ABSENT, key, value), sessionId, seq);
+    if(r.status == Result.APPLIED)
+      return "Successfully inserted the value";
+    else if(r.status == Result.NOT_APPLIED)
+      return "Key already exists with value: " + r.value;
+    else if(r.status == Result.UNKNOWN)
+      return OUTCOME_UNKNOWN;
+    else
+      return "Exception in inserting the value";
+  }
+
+  /**
+   * Add the given delta to the numeric value of a key. A missing key is treated as 0.
+   * @param key key to be incremented
+   * @param delta amount to be added to the value
+   * @return response with the incremented value if the value is successfully incremented
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String increment(String key, long delta)
+      throws RemoteException, InterruptedException {
+    return increment(key, delta, null, 0);
+  }
+
+  /**
+   * Add the given delta to the numeric value of a key. A missing key is treated as 0.
+   * A retried request with the same session and sequence number is applied only once.
+   * @param key key to be incremented
+   * @param delta amount to be added to the value
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return response with the incremented value if the value is successfully incremented
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if sleep is interrupted
+   */
+  @Override
+  public String increment(String key, long delta, String sessionId, long seq)
+      throws RemoteException, InterruptedException {
+    requireArgument(key, "key");
+    Result r = proposeOperation(new Operation(Operation.INCREMENT, key, Long.toString(delta)), sessionId, seq);
+    if(r.status == Result.APPLIED)
+      return "Successfully incremented the value to " + r.value;
+    else if(r.status == Result.NOT_APPLIED)
+      return "Value is not a valid number: " + r.value;
+    else if(r.status == Result.UNKNOWN)
+      return OUTCOME_UNKNOWN;
+    else
+      return "Exception in incrementing the value";
+  }
+
+  /**
+   * Reject a missing argument before it is proposed, as every learner would fail to apply it.
+   * @param arg argument to be checked
+   * @param name name of the argument
+   */
+  private static void requireArgument(String arg, String name) {
+    if(arg == null)
+      throw new IllegalArgumentException("The " + name + " must not be null");
+  }
+
   /**
    * Get a value to a key from the key-value store.
    * @param key key to be inserted
@@ -122,20 +355,150 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
    * @throws RemoteException if any issue in connecting to server
    */
   @Override
-  public synchronized  String get(String key) throws RemoteException {
+  public String get(String key) throws RemoteException {
     String out = kvStore.getOrDefault(key, "Key does not exist to return");
     this.log("GET: " + key, out);
     return out;
   }
 
   /**
-   * Propose an operation to be applied.
+   * Get a value to a key along with a read lease for caching it on the client.
+   * @param key key to be read
+   * @return value of the key, the slot of the change feed it was read at and the lease
+   * @throws RemoteException if any issue in connecting to server
+   */
+  @Override
+  public LeasedValue getWithLease(String key) throws RemoteException {
+    // read the slot before the value: every change before the slot is already in the store, and
+    // any later change to the key reaches the watchers from the slot on
+    long slot = this.changeFeed.nextSlot();
+    String out = kvStore.get(key);
+    this.log("GET_LEASE: " + key, out);
+    return new LeasedValue(out, slot, READ_LEASE);
+  }
+
+  /**
+   * Get the next batch of committed changes for a key or a prefix. This is not synchronized on the
+   * server since watchers wait on the change feed until a matching change is applied.
+   * @param key key or prefix to be watched
+   * @param isPrefix true to match every key starting with the given key
+   * @param fromSlot first slot to be returned, 0 to only receive changes committed from now on
+   * @param maxEvents maximum number of changes to be returned in the batch
+   * @param timeoutMillis maximum time to wait for a matching change, capped at FEED_MAX_WAIT
+   * @return batch of matching changes along with the slot to resume from
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if wait is interrupted
+   */
+  @Override
+  public ChangeBatch watch(String key, boolean isPrefix, long fromSlot, int maxEvents, long timeoutMillis)
+      throws RemoteException, InterruptedException {
+    return this.changeFeed.read(key, isPrefix, fromSlot, Math.min(Math.max(maxEvents, 1), FEED_MAX_BATCH),
+        Math.min(timeoutMillis, FEED_MAX_WAIT), true);
+  }
+
+  /**
+   * Get the next batch of committed changes for a key or a prefix, without their values.
+   * @param key key or prefix to be watched
+   * @param isPrefix true to match every key starting with the given key
+   * @param fromSlot first slot to be returned, 0 to only receive changes committed from now on
+   * @param maxEvents maximum number of changes to be returned in the batch
+   * @param timeoutMillis maximum time to wait for a matching change, capped at FEED_MAX_WAIT
+   * @return batch of matching changes along with the slot to resume from
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if wait is interrupted
+   */
+  @Override
+  public ChangeBatch watchKeys(String key, boolean isPrefix, long fromSlot, int maxEvents, long timeoutMillis)
+      throws RemoteException, InterruptedException {
+    return this.changeFeed.read(key, isPrefix, fromSlot, Math.min(Math.max(maxEvents, 1), FEED_MAX_BATCH),
+        Math.min(timeoutMillis, FEED_MAX_WAIT), false);
+  }
+
+  /**
+   * Propose an operation to be applied. If the request was already applied for the client session,
+   * the recorded result is returned without starting a new consensus round. The operation is
+   * proposed for the next free slot of the log, and for the slot after it whenever another value
+   * was chosen for the slot.
    * @param operation The operation to be proposed.
+   * @param sessionId id of the client session, null if the request is not to be deduplicated
+   * @param seq sequence number of the request within the client session
+   * @return result of the operation
    * @throws RemoteException If a remote error occurs.
    */
-  private boolean proposeOperation(Operation operation) throws RemoteException, InterruptedException {
-    String proposalId = generateProposalId();
-    return propose(proposalId, operation);
+  private Result proposeOperation(Operation operation, String sessionId, long seq) throws RemoteException, InterruptedException {
+    if(sessionId != null) {
+      Pair<Long, Result> last;
+      synchronized(this.learnerLock) {
+        last = this.sessions.get(sessionId);
+      }
+      if(last != null && last.k >= seq) {
+        this.log("RETRY " + sessionId + ":" + seq, "Returning the recorded result");
+        return last.k == seq ? last.t : new Result(Result.FAILED, null);
+      }
+      operation.sessionId = sessionId;
+      operation.seq = seq;
+    }
+    operation.id = newOperationId();
+    long slot = this.reserveSlot(0);
+    try {
+      for(int attempt = 0; ; attempt++) {
+        Result out = this.runRound(slot, this.generateBallot(), operation);
+        if(out.status == Result.SUPERSEDED) {
+          // another proposal won the slot, which is progress, so it does not count as a retry
+          slot = this.reserveSlot(slot);
+          attempt -= 1;
+          continue;
+        }
+        if(out.status == Result.PREEMPTED) {
+          this.conflicts.incrementAndGet();
+        } else if(out.status != Result.NO_QUORUM) {
+          return out;
+        }
+        if(attempt >= MAX_PROPOSE_RETRIES) {
+          // the operation may have been accepted for the slot by some acceptors, and a later
+          // proposer for the slot carries on with it
+          this.log("PROPOSE " + operation.key, "Giving up after " + attempt + " retries");
+          return new Result(Result.UNKNOWN, null);
+        }
+        // back off for a random time up to an exponentially growing bound, without holding any
+        // lock, so the competing proposers can reach this server's acceptor in the meantime
+        long bound = Math.min(BACKOFF_MAX, (long) BACKOFF_BASE << attempt);
+        Thread.sleep(1 + ThreadLocalRandom.current().nextLong(bound));
+        this.retries.incrementAndGet();
+      }
+    } finally {
+      synchronized(this.learnerLock) {
+        this.outData.remove(slot);
+      }
+    }
+  }
+
+  /**
+   * Reserve the next free slot of the log for a proposal of this server, so that the learner
+   * records the value applied for it.
+   * @param previous slot reserved before by the proposal, 0 if none
+   * @return reserved slot
+   */
+  private long reserveSlot(long previous) {
+    synchronized(this.learnerLock) {
+      this.outData.remove(previous);
+      long slot = Math.max(this.nextSlot, this.nextApply);
+      this.nextSlot = slot + 1;
+      this.outData.put(slot, null);
+      return slot;
+    }
+  }
+
+  /**
+   * Generate the id of a proposed operation, never 0 so that it is always sent along.
+   * @return random id
+   */
+  private static long newOperationId() {
+    long id;
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while(id == 0);
+    return id;
   }
 
   /**
@@ -158,162 +521,510 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
   }
 
   /**
-   * Process the prepare operation of a acceptor. Receive the prepare request from the acceptor
-   * and accept / reject it based on the if there's any latest operation in it's log.
-   * @param proposalId The unique ID of the proposal.
-   * @param oper operation to be performed
-   * @return pair if  the given operation is accepted or not along with accepted operation
+   * Process the prepare operation of a acceptor. Receive the prepare request from the proposer
+   * for a slot of the log and promise it unless a higher ballot was promised for the slot.
+   * @param slot The slot of the log the proposal is for.
+   * @param ballot The ballot of the proposal.
+   * @return state of the acceptor for the slot, with the given ballot as the promised one if the
+   * proposal is promised and the higher competing one otherwise, along with the value accepted
+   * for the slot. Null if the acceptor is down or already forgot the slot.
    * @throws RemoteException if there's any issue with RMI
    */
   @Override
-  public synchronized Pair<Boolean, Operation> prepare(String proposalId, Object oper) throws RemoteException {
-    if(this.isAcceptorDown()) {
-      return null;
-    }
-    // Implement Paxos prepare logic here
-    Operation op = (Operation)oper;
-
-    // check in the log for any highest value.
-    if(this.log.containsKey(op.key)) {
-      if(Long.parseLong(this.log.get(op.key).k.split(":")[1]) > Long.parseLong(proposalId.split(":")[1])) {
-        return new Pair<>(false, op);
+  public Promise prepare(long slot, Ballot ballot) throws RemoteException {
+    this.injectDelay();
+    synchronized(this.acceptorLock) {
+      if(this.isAcceptorDown() || slot < this.logFloor) {
+        return null;
+      }
+      Promise state = this.log.computeIfAbsent(slot, s -> new Promise());
+      if(state.promised == null || state.promised.compareTo(ballot) < 0) {
+        state.promised = ballot;
       }
+      // a copy, so that a proposer of this replica does not see the later changes to the slot
+      return new Promise(state);
     }
-    this.log.put(op.key, new Pair<>(proposalId, op));
-    return new Pair<>(true, op);
   }
 
   /**
-   * Accept the value that the proposers give. If there's any operation with higher number, reject
-   * the acceptance.
-   * @param proposalId The unique ID of the proposal.
+   * Accept the value that the proposers give for a slot of the log. If a higher ballot was
+   * promised for the slot, reject the acceptance.
+   * @param slot The slot of the log the proposal is for.
+   * @param ballot The ballot of the proposal.
    * @param proposalValue The value of the proposal.
+   * @return ballot the acceptor promised, the given ballot if the value is accepted and the higher
+   * competing one otherwise, null if the acceptor is down or already forgot the slot
    * @throws RemoteException if issue arises with RMI
    */
   @Override
-  public synchronized void accept(String proposalId, Object proposalValue) throws RemoteException {
-    if(this.isAcceptorDown()) {
-      return;
+  public Ballot accept(long slot, Ballot ballot, Operation proposalValue) throws RemoteException {
+    this.injectDelay();
+    synchronized(this.acceptorLock) {
+      if(this.isAcceptorDown() || slot < this.logFloor) {
+        return null;
+      }
+      Promise state = this.log.computeIfAbsent(slot, s -> new Promise());
+      if(state.promised != null && state.promised.compareTo(ballot) > 0) {
+        return state.promised;
+      }
+      state.promised = ballot;
+      state.acceptedBallot = ballot;
+      state.accepted = proposalValue;
     }
-
-    // Implement Paxos accept logic here
-    Operation op = (Operation)proposalValue;
-
-    // check in the log for any highest value.
-    if(this.log.containsKey(op.key)) {
-      if(Long.parseLong(this.log.get(op.key).k.split(":")[1]) <= Long.parseLong(proposalId.split(":")[1])) {
-        for(int i=0; i<5; i++) {
-          this.learners[i].learn(proposalId, proposalValue);
+    // notify the learners in the background and at the same time, so that the proposer gets the
+    // reply without waiting on them. The learners apply the chosen values in the order of their
+    // slots, whatever order the notifications arrive in. A learner that cannot be reached is
+    // treated as down.
+    for(int i=0; i<this.learners.length; i++) {
+      LearnerInterface learner = this.learners[i];
+      String request = "LEARN " + slot + " " + ballot + " to learner " + i;
+      this.rpcPool.execute(() -> {
+        try {
+          learner.learn(slot, ballot, proposalValue);
+        } catch(RemoteException e) {
+          this.log(request, "Learner not reachable");
         }
-      }
+      });
     }
+    return ballot;
   }
 
   /**
-   * Porpose a value to all the acceptors and get their input on the proposal. If all the
-   * acceptors accept the proposal, send a accept request. If any of them rejects it, send a
-   * accept request for the higher operation value.
-   * @param proposalId The unique identifier for the proposal.
+   * Porpose a value to all the acceptors and get their input on the proposal. If a majority of
+   * the acceptors accept the proposal, send a accept request. The proposer picks the slot and the
+   * ballot itself, above any competing ballot it has seen.
    * @param proposalValue The value being proposed.
    * @return true/false based on if operation is successful or not.
    * @throws RemoteException if issue arises with RMI
    * @throws InterruptedException if sleep is interrupted
    */
   @Override
-  public synchronized boolean propose(String proposalId, Object proposalValue)
+  public boolean propose(Operation proposalValue)
       throws RemoteException, InterruptedException {
-    // Implement Paxos propose logic here
-    List<Pair<Boolean, Operation>> p = new ArrayList<>();
-    for(int i=0; i<5; i++) {
-      Pair<Boolean, Operation> pp = this.acceptors[i].prepare(proposalId, proposalValue);
-      p.add(pp);
+    Result out = this.proposeOperation(proposalValue, proposalValue.sessionId, proposalValue.seq);
+    return out.status == Result.APPLIED;
+  }
+
+  /**
+   * Run a single round of Paxos for a slot of the log. The prepare and accept requests are sent to
+   * all the acceptors at the same time, and the proposer moves on as soon as a majority of them
+   * agreed. The time it waits for a majority is derived from the latency observed in the earlier
+   * rounds. If an acceptor already accepted a value for the slot, the one accepted with the highest
+   * ballot is proposed instead of the given value, as it may already be chosen.
+   * @param slot The slot of the log the proposal is for.
+   * @param ballot The ballot of the proposal.
+   * @param proposalValue The value being proposed.
+   * @return result of the operation. SUPERSEDED if another value was chosen for the slot.
+   * PREEMPTED if acceptors rejected the proposal in favour of a higher one and NO_QUORUM if a
+   * majority of acceptors could not be reached, in both cases the slot is not decided yet and the
+   * round can be retried with a higher ballot. UNKNOWN if the value was chosen but the learner of
+   * this replica did not apply it in time.
+   * @throws RemoteException if issue arises with RMI
+   * @throws InterruptedException if wait is interrupted
+   */
+  private Result runRound(long slot, Ballot ballot, Operation proposalValue)
+      throws RemoteException, InterruptedException {
+    synchronized(this.learnerLock) {
+      if(slot < this.nextApply) {
+        return this.outcome(slot, proposalValue);
+      }
     }
-    Thread.sleep(PROPOSER_TIMEOUT);
-    int highestValue = -1, majorityCount = 0;
-
-    // check for rejections and majority
-    for(int i=0; i<5; i++) {
-      if(p.get(i) != null) {
-        if(!p.get(i).k)
-          highestValue = i;
-        else
-          majorityCount += 1;
+
+    List<Promise> promises = Collections.synchronizedList(new ArrayList<>());
+    List<Callable<Ballot>> prepares = new ArrayList<>();
+    for(AcceptorInterface acceptor : this.acceptors) {
+      prepares.add(() -> {
+        Promise promise = acceptor.prepare(slot, ballot);
+        if(promise == null)
+          return null;
+        promises.add(promise);
+        return promise.promised;
+      });
+    }
+    int[] promised = this.collect("PREPARE " + slot + " " + ballot, ballot, prepares, false);
+    if(promised[0] < this.majority) {
+      return new Result(promised[1] > 0 ? Result.PREEMPTED : Result.NO_QUORUM, null);
+    }
+    Operation value = proposalValue;
+    Ballot highest = null;
+    synchronized(promises) {
+      for(Promise promise : promises) {
+        if(promise.acceptedBallot != null && (highest == null || promise.acceptedBallot.compareTo(highest) > 0)) {
+          highest = promise.acceptedBallot;
+          value = promise.accepted;
+        }
       }
     }
 
-    // if any rejects, accept the highest value
-    if(highestValue != -1) {
-      for(int i=0; i<5; i++) {
-        this.acceptors[i].accept(proposalId, p.get(i).t);
+    Operation acceptValue = value;
+    List<Callable<Ballot>> accepts = new ArrayList<>();
+    for(AcceptorInterface acceptor : this.acceptors) {
+      accepts.add(() -> acceptor.accept(slot, ballot, acceptValue));
+    }
+    int[] accepted = this.collect("ACCEPT " + slot + " " + ballot, ballot, accepts, true);
+    if(accepted[0] < this.majority) {
+      // the value was not chosen in this round, or it is not known in time whether it was. Either
+      // way the slot is retried, and the next round carries on with the value if it was accepted.
+      return new Result(accepted[1] > 0 ? Result.PREEMPTED : Result.NO_QUORUM, null);
+    }
+    if(value.id != proposalValue.id) {
+      return new Result(Result.SUPERSEDED, null);
+    }
+
+    // the value is chosen, wait for the learner of this replica to apply the slot. The wait holds
+    // no lock other proposals or the acceptor of this replica need.
+    long deadline = System.currentTimeMillis() + LEARN_TIMEOUT;
+    synchronized(this.learnerLock) {
+      while(this.nextApply <= slot) {
+        long remaining = deadline - System.currentTimeMillis();
+        if(remaining <= 0) {
+          this.log("PROPOSE " + slot + " " + ballot, "Operation was not learned in time");
+          return new Result(Result.UNKNOWN, null);
+        }
+        this.learnerLock.wait(remaining);
       }
-      return false;
+      return this.outcome(slot, proposalValue);
     }
+  }
+
+  /**
+   * Get the result of a proposal for a slot the learner of this replica already applied. Must be
+   * called holding the learner lock.
+   * @param slot applied slot
+   * @param proposalValue value proposed for the slot
+   * @return result of the value if it was the one chosen for the slot, SUPERSEDED otherwise
+   */
+  private Result outcome(long slot, Operation proposalValue) {
+    Pair<Operation, Result> applied = this.outData.get(slot);
+    if(applied == null || applied.k.id != proposalValue.id)
+      return new Result(Result.SUPERSEDED, null);
+    return applied.t;
+  }
 
-    // if majority, accept the propsed value
-    if(majorityCount >= MAJORITY_CNT) {
-      for(int i=0; i<5; i++) {
-        if(p.get(i) != null)
-          this.acceptors[i].accept(proposalId, proposalValue);
+  /**
+   * Send requests to all the acceptors at the same time and collect the replies until a majority
+   * of the acceptors agreed, a majority can no longer agree, or the proposer timeout runs out. The
+   * time taken is fed into the latency estimate. An acceptor that cannot be reached is treated as
+   * down.
+   * @param request description of the request for the log
+   * @param ballot ballot of the proposal
+   * @param calls one request per acceptor, returning the ballot the acceptor promised, which is
+   * the given one if it agreed, and null if the acceptor is down
+   * @param untilDecided true to keep collecting the pending replies past the proposer timeout, up
+   * to MAX_PROPOSER_TIMEOUT, while they can still decide whether a majority agrees
+   * @return number of acceptors that agreed, rejected, and that did not reply in time or may have
+   * processed the request without the reply reaching the proposer
+   * @throws RemoteException if issue arises with RMI
+   * @throws InterruptedException if wait is interrupted
+   */
+  private int[] collect(String request, Ballot ballot, List<Callable<Ballot>> calls, boolean untilDecided)
+      throws RemoteException, InterruptedException {
+    CompletionService<Ballot> replies = new ExecutorCompletionService<>(this.rpcPool);
+    for(Callable<Ballot> call : calls) {
+      replies.submit(call);
+    }
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.getProposerTimeout());
+    long limit = untilDecided ? start + TimeUnit.MILLISECONDS.toNanos(MAX_PROPOSER_TIMEOUT) : deadline;
+    int acks = 0, nacks = 0, pending = calls.size(), received = 0;
+    while(acks < this.majority && acks + calls.size() - received >= this.majority) {
+      Future<Ballot> reply = replies.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if(reply == null) {
+        if(deadline >= limit)
+          break;
+        deadline = limit;
+        continue;
       }
-      while(!this.outData.containsKey(proposalId)) {
-        Thread.sleep(100);
+      received += 1;
+      try {
+        Ballot promised = reply.get();
+        pending -= 1;
+        if(promised != null) {
+          if(promised.equals(ballot)) {
+            acks += 1;
+          } else {
+            nacks += 1;
+            this.observeBallot(promised);
+          }
+        }
+      } catch(ExecutionException e) {
+        this.log(request, "Acceptor not reachable");
+        // a refused connection never reached the acceptor, any other failure may have been
+        // processed by it, so the acceptor stays pending
+        if(e.getCause() instanceof ConnectException)
+          pending -= 1;
       }
-      return this.outData.get(proposalId);
     }
+    this.observeLatency((System.nanoTime() - start) / 1_000_000.0);
+    return new int[]{acks, nacks, pending};
+  }
 
-    return false;
+  /**
+   * Update the smoothed latency of reaching the acceptors and its variation with a new sample. A
+   * round that timed out is sampled at the timeout, so the estimate grows when the acceptors slow
+   * down.
+   * @param sampleMillis observed latency in milliseconds
+   */
+  private void observeLatency(double sampleMillis) {
+    synchronized(this.proposerLock) {
+      this.latencyVar = 0.75 * this.latencyVar + 0.25 * Math.abs(sampleMillis - this.latency);
+      this.latency = 0.875 * this.latency + 0.125 * sampleMillis;
+    }
+  }
+
+  /**
+   * Get the time the proposer waits for the acceptors, which is the smoothed latency plus four
+   * times its variation, bounded by MIN_PROPOSER_TIMEOUT and MAX_PROPOSER_TIMEOUT. The upper bound
+   * is well above the initial estimate, so that the timeout can grow with acceptors that are slower
+   * than expected instead of failing every round on them.
+   * @return timeout in milliseconds
+   */
+  private long getProposerTimeout() {
+    long timeout = (long) Math.ceil(this.latency + 4 * this.latencyVar);
+    return Math.max(MIN_PROPOSER_TIMEOUT, Math.min(MAX_PROPOSER_TIMEOUT, timeout));
   }
 
   /**
-   * learn the value that the acceptors pass.
-   * @param proposalId The unique identifier for the proposal.
+   * Get the contention counters of the proposer of this server.
+   * @return map of the counter name to its value
+   * @throws RemoteException if any issue with the RMI
+   */
+  @Override
+  public Map<String, Long> getProposerStats() throws RemoteException {
+    Map<String, Long> stats = new HashMap<>();
+    stats.put("conflicts", this.conflicts.get());
+    stats.put("retries", this.retries.get());
+    stats.put("timeoutMillis", this.getProposerTimeout());
+    return stats;
+  }
+
+  /**
+   * learn the value that the acceptors pass. A value is chosen for a slot once a majority of the
+   * acceptors accepted it with the same ballot. Chosen values are applied strictly in the order of
+   * their slots, and a value chosen ahead of a missing slot is kept until the slot is filled.
+   * @param slot The slot of the log the value was accepted for.
+   * @param ballot The ballot the value was accepted with.
    * @param acceptedValue The value that has been accepted.
    * @throws RemoteException if any issue with the RMI
    */
   @Override
-  public synchronized void learn(String proposalId, Object acceptedValue) throws RemoteException {
-    // Implement Paxos learn logic here
-    if(!this.lrnCnt.containsKey(proposalId)) {
-      this.lrnCnt.put(proposalId, new Pair<>(1, false));
-    } else {
-      Pair<Integer, Boolean> p = this.lrnCnt.get(proposalId);
-      p.k += 1;
-      if(p.k >= MAJORITY_CNT && !p.t) {
-        this.outData.put(proposalId, this.applyOperation((Operation) acceptedValue));
-        p.t = true;
+  public void learn(long slot, Ballot ballot, Operation acceptedValue) throws RemoteException {
+    this.injectDelay();
+    synchronized(this.learnerLock) {
+      if(slot < this.nextApply || this.chosen.containsKey(slot)) {
+        return;
+      }
+      Map<Ballot, Integer> counts = this.lrnCnt.computeIfAbsent(slot, s -> new HashMap<>());
+      if(counts.merge(ballot, 1, Integer::sum) < this.majority) {
+        return;
+      }
+      this.lrnCnt.remove(slot);
+      this.chosen.put(slot, acceptedValue);
+      Operation next;
+      while((next = this.chosen.remove(this.nextApply)) != null) {
+        Result result = this.applyOnce(next);
+        if(this.outData.containsKey(this.nextApply))
+          this.outData.put(this.nextApply, new Pair<>(next, result));
+        this.nextApply += 1;
+      }
+      if(this.chosen.isEmpty()) {
+        this.gapSince = 0;
+      } else if(this.gapSince == 0) {
+        this.gapSince = System.currentTimeMillis();
       }
-      this.lrnCnt.put(proposalId, p);
+      if(this.nextApply - LOG_RETENTION > this.logFloor) {
+        this.forgetSlots(this.nextApply - LOG_RETENTION);
+      }
+      this.learnerLock.notifyAll();
+    }
+  }
+
+  /**
+   * Drop the acceptor state of the slots below the given one, which every value proposed for is
+   * long applied. Requests for forgotten slots are answered as if the acceptor was down.
+   * @param floor lowest slot to be kept
+   */
+  private void forgetSlots(long floor) {
+    synchronized(this.acceptorLock) {
+      this.log.headMap(floor).clear();
+      this.logFloor = floor;
+    }
+  }
+
+  /**
+   * Fill the slots the learner of this replica has been missing for longer than GAP_TIMEOUT, while
+   * later slots are already chosen. A no-op is proposed for each missing slot, and the round carries
+   * on with the value already accepted for the slot if there is one, so the learner gets the value
+   * that was chosen, or the no-op if none was.
+   */
+  private void catchUp() {
+    while(true) {
+      try {
+        Thread.sleep(GAP_TIMEOUT);
+        long from, to;
+        synchronized(this.learnerLock) {
+          if(this.gapSince == 0 || System.currentTimeMillis() - this.gapSince < GAP_TIMEOUT)
+            continue;
+          from = this.nextApply;
+          to = this.chosen.firstKey();
+        }
+        for(long slot = from; slot < to; slot++) {
+          this.log("CATCH_UP " + slot, "Slot is missing, proposing a no-op for it");
+          Operation noop = new Operation(Operation.NOOP, "");
+          noop.id = newOperationId();
+          this.runRound(slot, this.generateBallot(), noop);
+        }
+      } catch(RemoteException e) {
+        this.log("CATCH_UP", "Could not fill the missing slots");
+      } catch(InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Make every acceptor and learner call on this replica take the given extra time, to simulate a
+   * slow node.
+   * @param millis extra time in milliseconds, 0 to remove the delay
+   * @throws RemoteException if any issue with the RMI
+   */
+  @Override
+  public void setInjectedDelay(long millis) throws RemoteException {
+    this.injectedDelay = millis;
+    this.log("FAULT delay " + millis, "Injected delay is set");
+  }
+
+  /**
+   * Sleep for the injected delay, if any.
+   */
+  private void injectDelay() {
+    long delay = this.injectedDelay;
+    if(delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Generates a unique ballot, higher than the earlier ballots of this server and than any
+   * competing ballot an acceptor rejected this server for, so that a retry can win even when the
+   * clock of the competing server runs ahead.
+   * @return A unique ballot.
+   */
+  private Ballot generateBallot() {
+    synchronized(this.proposerLock) {
+      long round = Math.max(System.currentTimeMillis(), this.lastBallot + 1);
+      if(this.highestSeen != null && round <= this.highestSeen.round)
+        round = this.highestSeen.round + 1;
+      this.lastBallot = round;
+      return new Ballot(round, this.serverId);
     }
   }
 
   /**
-   * Generates a unique proposal ID.
-   * @return A unique proposal ID.
+   * Note a competing ballot an acceptor rejected a proposal of this server for.
+   * @param ballot competing ballot
    */
-  private String generateProposalId() throws RemoteException {
-    // Placeholder code to generate a unique proposal ID
-    return this.serverId + ":" + System.currentTimeMillis();
+  private void observeBallot(Ballot ballot) {
+    synchronized(this.proposerLock) {
+      if(this.highestSeen == null || ballot.compareTo(this.highestSeen) > 0)
+        this.highestSeen = ballot;
+    }
   }
 
   /**
-   * Apply the given operation to the key-value store.
+   * Apply the given operation unless it was already applied for its client session, in which case
+   * the recorded result is returned. Every learner records the result of each session request, so
+   * the table of results is the same on every replica.
    * @param operation The operation to apply.
+   * @return result of the operation
    */
-  private boolean applyOperation(Operation operation) throws RemoteException {
-    if (operation == null) return false;
+  private Result applyOnce(Operation operation) throws RemoteException {
+    if(operation.sessionId != null) {
+      Pair<Long, Result> last = this.sessions.get(operation.sessionId);
+      if(last != null && last.k >= operation.seq) {
+        return last.k == operation.seq ? last.t : new Result(Result.FAILED, null);
+      }
+    }
+    Result result = this.applyOperation(operation);
+    if(result.status == Result.APPLIED) {
+      this.changeFeed.append(operation.type, operation.key, this.kvStore.get(operation.key));
+    }
+    if(operation.sessionId != null) {
+      // PUT and DELETE only report their status, so their value is not kept in the table
+      Result recorded = operation.type == Operation.PUT || operation.type == Operation.DELETE
+          ? new Result(result.status, null) : result;
+      // re-insert so that the sessions are evicted in the order of their last request, which is
+      // the order of the log, so every replica evicts the same sessions
+      this.sessions.remove(operation.sessionId);
+      this.sessions.put(operation.sessionId, new Pair<>(operation.seq, recorded));
+    }
+    return result;
+  }
+
+  /**
+   * Apply the given operation to the key-value store. Conditional operations are evaluated here,
+   * at apply time, so that every learner reaches the same outcome for the same operation.
+   * @param operation The operation to apply.
+   * @return result of the operation along with the new value, or the current value if the
+   * condition of the operation did not hold
+   */
+  private Result applyOperation(Operation operation) throws RemoteException {
+    if (operation != null && operation.type == Operation.NOOP) {
+      return new Result(Result.NOT_APPLIED, null);
+    }
+    if (operation == null || operation.key == null
+        || (operation.value == null && operation.type != Operation.DELETE)) {
+      // proposals that bypassed the API checks are not applied on any learner
+      return new Result(Result.FAILED, null);
+    }
+    String current;
     switch (operation.type) {
-      case "PUT":
+      case Operation.PUT:
         kvStore.put(operation.key, operation.value);
         this.log("PUT " + operation.key + ":" + operation.value, "Successfully inserted/updated the key");
-        return true;
-      case "DELETE":
+        return new Result(Result.APPLIED, operation.value);
+      case Operation.DELETE:
         if(kvStore.containsKey(operation.key)) {
           kvStore.remove(operation.key);
           this.log("DELETE " + operation.key, "Successfully deleted the key");
-          return true;
+          return new Result(Result.APPLIED, null);
         } else {
           this.log("DELETE " + operation.key, "Key does not exist to delete!");
-          return false;
+          return new Result(Result.NOT_APPLIED, null);
+        }
+      case Operation.COMPARE_AND_SET:
+        current = kvStore.get(operation.key);
+        if(Objects.equals(current, operation.expected)) {
+          kvStore.put(operation.key, operation.value);
+          this.log("CAS " + operation.key + ":" + operation.expected + "->" + operation.value, "Successfully swapped the key");
+          return new Result(Result.APPLIED, operation.value);
+        } else {
+          this.log("CAS " + operation.key + ":" + operation.expected + "->" + operation.value, "Current value does not match!");
+          return new Result(Result.NOT_APPLIED, current);
+        }
+      case Operation.PUT_IF_ABSENT:
+        current = kvStore.putIfAbsent(operation.key, operation.value);
+        if(current == null) {
+          this.log("PUT_IF_ABSENT " + operation.key + ":" + operation.value, "Successfully inserted the key");
+          return new Result(Result.APPLIED, operation.value);
+        } else {
+          this.log("PUT_IF_ABSENT " + operation.key + ":" + operation.value, "Key already exists!");
+          return new Result(Result.NOT_APPLIED, current);
+        }
+      case Operation.INCREMENT:
+        current = kvStore.getOrDefault(operation.key, "0");
+        try {
+          String updated = Long.toString(Math.addExact(Long.parseLong(current), Long.parseLong(operation.value)));
+          kvStore.put(operation.key, updated);
+          this.log("INCREMENT " + operation.key + ":" + operation.value, "Successfully incremented the key to " + updated);
+          return new Result(Result.APPLIED, updated);
+        } catch(NumberFormatException | ArithmeticException e) {
+          this.log("INCREMENT " + operation.key + ":" + operation.value, "Value is not a valid number!");
+          return new Result(Result.NOT_APPLIED, current);
         }
       default:
         throw new IllegalArgumentException("Unknown operation type: " + operation.type);
@@ -323,37 +1034,31 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
 }
 
 /**
- * class representing an operation on the key-value store.
+ * class representing the result of an operation proposed to the key-value store.
  */
-class Operation {
-  String type;
-  String key;
+class Result {
+  static final byte APPLIED = 0;
+  static final byte NOT_APPLIED = 1;
+  static final byte FAILED = 2;
+  // used by the proposer between rounds, never returned to the clients
+  static final byte PREEMPTED = 3;
+  static final byte NO_QUORUM = 4;
+  static final byte UNKNOWN = 5;
+  static final byte SUPERSEDED = 6;
+
+  byte status;
   String value;
 
-  Operation(String type, String key, String value) {
-    this.type = type;
-    this.key = key;
+  /**
+   * Create a result.
+   * @param status APPLIED if the operation was applied, NOT_APPLIED if it was committed but its
+   * condition did not hold, FAILED if it was not committed, UNKNOWN if it was not learned in time
+   * and may still be committed
+   * @param value value of the key after an applied operation, or the current value of the key if
+   * the condition did not hold
+   */
+  Result(byte status, String value) {
+    this.status = status;
     this.value = value;
   }
-
-  Operation(String type, String key) {
-    this(type, key, null);
-  }
-}
-
-/**
- * Create a Pair Object with any two generic types.
- * @param <K> Generic K that is used in pair creation
- * @param <T> Generic T that is used in pair creation
- */
-class Pair<K, T> {
-  T t;
-  K k;
-
-  Pair(K k, T t) {
-    this.k = k;
-    this.t = t;
-  }
-
-  Pair() {}
 }
@@ -0,0 +1,48 @@
+package server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The WatchInterface lets clients follow the operations committed on a replica instead of polling
+ * the key-value store. Every operation applied by the learner is given a slot number that increases
+ * by one on each applied change, so a client can resume from the slot after the last one it saw.
+ */
+public interface WatchInterface extends Remote {
+
+  /**
+   * Get the next batch of committed changes for a key or a prefix. The call waits until at least
+   * one matching change is committed or the timeout runs out. Clients drive the pace of delivery by
+   * asking for the next batch only once they are done with the previous one. A slot that is no
+   * longer retained, or that is ahead of the feed because the replica restarted, is rejected with
+   * an IllegalStateException; the epoch of the returned batch also changes on a restart.
+   *
+   * @param key key or prefix to be watched
+   * @param isPrefix true to match every key starting with the given key
+   * @param fromSlot first slot to be returned, 0 to only receive changes committed from now on
+   * @param maxEvents maximum number of changes to be returned in the batch
+   * @param timeoutMillis maximum time to wait for a matching change, capped by the replica
+   * @return batch of matching changes along with the slot to resume from
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if wait is interrupted
+   */
+  ChangeBatch watch(String key, boolean isPrefix, long fromSlot, int maxEvents, long timeoutMillis)
+      throws RemoteException, InterruptedException;
+
+  /**
+   * Get the next batch of committed changes for a key or a prefix like watch, but without the
+   * values of the changes. Used by clients that only need to know which keys changed, such as a
+   * cache that drops the changed keys.
+   *
+   * @param key key or prefix to be watched
+   * @param isPrefix true to match every key starting with the given key
+   * @param fromSlot first slot to be returned, 0 to only receive changes committed from now on
+   * @param maxEvents maximum number of changes to be returned in the batch
+   * @param timeoutMillis maximum time to wait for a matching change, capped by the replica
+   * @return batch of matching changes without their values, along with the slot to resume from
+   * @throws RemoteException if any issue in connecting to server
+   * @throws InterruptedException if wait is interrupted
+   */
+  ChangeBatch watchKeys(String key, boolean isPrefix, long fromSlot, int maxEvents, long timeoutMillis)
+      throws RemoteException, InterruptedException;
+}